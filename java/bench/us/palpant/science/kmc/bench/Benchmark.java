@@ -0,0 +1,93 @@
+package us.palpant.science.kmc.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import us.palpant.Ark;
+import us.palpant.science.kmc.Main;
+
+/**
+ * A benchmark of one part of the simulator
+ * The model is a single particle type that adsorbs, desorbs and diffuses
+ * with unit rates, on a lattice of the given length, size and boundary
+ * condition, so that the results are comparable across versions.
+ * Each call to run performs a batch of operations, which the Benchmarks
+ * runner times
+ * @author palpant
+ *
+ */
+public abstract class Benchmark {
+  
+  public static final String SEED = "10011989";
+  
+  /**
+   * Build the model for a set of parameters
+   * @param plugin the plugin to benchmark, or null
+   * @param dir a directory for the outputs of plugins
+   */
+  public abstract void setup(int length, int size, String bc, String plugin, Path dir) throws IOException;
+  
+  /**
+   * Perform a batch of operations
+   * @return the number of operations performed
+   */
+  public abstract long run() throws IOException;
+  
+  /**
+   * Release the model
+   */
+  public void teardown() throws IOException { }
+  
+  /**
+   * @return whether this benchmark is parameterized by plugin
+   */
+  public boolean hasPlugins() {
+    return false;
+  }
+  
+  /**
+   * Factory method that returns a new Benchmark
+   * @param name the name of the benchmark
+   * @return a new Benchmark
+   */
+  public static Benchmark forName(String name) {
+    switch (name) {
+    case "manager":
+      return new ManagerBenchmark();
+    case "run":
+      return new RunBenchmark();
+    case "init":
+      return new InitBenchmark();
+    case "plugin":
+      return new PluginBenchmark();
+    default:
+      throw new IllegalArgumentException("Unknown benchmark: "+name);
+    }
+  }
+  
+  /**
+   * @return the configuration of the model
+   */
+  protected Ark newConfig(int length, int size, String bc) {
+    Ark config = new Ark();
+    config.set("app", "kmc");
+    config.set("lattice.length", String.valueOf(length));
+    config.set("lattice.bc", bc);
+    config.set("particles.nuc.type", "fixedWidth");
+    config.set("particles.nuc.size", String.valueOf(size));
+    String[] transitions = { "adsorption", "desorption", "diffusion" };
+    config.set("particles.nuc.transitions", transitions);
+    for (String t : transitions) {
+      config.set("particles.nuc."+t+".type", t);
+      config.set("particles.nuc."+t+".rate", "1");
+    }
+    config.set("kmc.seed", SEED);
+    config.set("kmc.plugins", new String[0]);
+    return config;
+  }
+  
+  protected Main newMain(int length, int size, String bc) {
+    return new Main(newConfig(length, size, bc));
+  }
+  
+}
@@ -0,0 +1,172 @@
+package us.palpant.science.kmc.bench;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Run the benchmarks over all combinations of their parameters
+ * Each combination is set up once, run for a warmup period, and then
+ * timed over several iterations of a fixed duration. The mean and
+ * standard deviation of the throughput over the iterations are reported
+ * @author palpant
+ *
+ */
+public class Benchmarks {
+  
+  @Parameter(names = { "-b", "--benchmark" }, description = "Benchmarks to run (manager, run, init, plugin)")
+  public List<String> benchmarks = Arrays.asList("manager", "run", "init", "plugin");
+  @Parameter(names = { "-l", "--length" }, description = "Lattice lengths")
+  public List<String> lengths = Arrays.asList("1000", "10000", "100000", "1000000", "10000000");
+  @Parameter(names = { "-s", "--size" }, description = "Particle sizes")
+  public List<String> sizes = Arrays.asList("8", "147");
+  @Parameter(names = { "--bc" }, description = "Boundary conditions")
+  public List<String> bcs = Arrays.asList("fixed", "periodic");
+  @Parameter(names = { "-p", "--plugin" }, description = "Plugins, for the plugin benchmark")
+  public List<String> plugins = Arrays.asList(PluginBenchmark.PLUGINS);
+  @Parameter(names = { "-w", "--warmup" }, description = "Warmup time (s)")
+  public double warmup = 2;
+  @Parameter(names = { "-i", "--iterations" }, description = "Timed iterations")
+  public int iterations = 5;
+  @Parameter(names = { "-t", "--time" }, description = "Time per iteration (s)")
+  public double time = 1;
+  @Parameter(names = { "-o", "--output" }, description = "Write the results to a tab-delimited file")
+  public String outputFile;
+  @Parameter(names = { "-v", "--verbose" }, description = "Log the simulator")
+  public boolean verbose = false;
+  
+  private PrintWriter writer;
+  
+  public void run() throws IOException {
+    if (!verbose) {
+      Logger.getRootLogger().setLevel(Level.WARN);
+    }
+    
+    String header = String.format("%-8s %9s %5s %-9s %-13s %14s %12s %14s", 
+        "name", "length", "size", "bc", "plugin", "ops/s", "error", "ns/op");
+    System.out.println(header);
+    if (outputFile != null) {
+      writer = new PrintWriter(Files.newBufferedWriter(Paths.get(outputFile), Charset.defaultCharset()));
+      writer.println("name\tlength\tsize\tbc\tplugin\tops/s\terror\tns/op");
+    }
+    for (String name : benchmarks) {
+      for (String length : lengths) {
+        for (String size : sizes) {
+          for (String bc : bcs) {
+            Benchmark b = Benchmark.forName(name);
+            if (b.hasPlugins()) {
+              for (String plugin : plugins) {
+                measure(b, name, Integer.parseInt(length), Integer.parseInt(size), bc, plugin);
+              }
+            } else {
+              measure(b, name, Integer.parseInt(length), Integer.parseInt(size), bc, null);
+            }
+          }
+        }
+      }
+    }
+    
+    if (writer != null) {
+      writer.close();
+    }
+  }
+  
+  /**
+   * Warm up and time one combination of parameters
+   */
+  private void measure(Benchmark b, String name, int length, int size, String bc, String plugin) throws IOException {
+    System.gc();
+    Path dir = Files.createTempDirectory("kmc-bench");
+    try {
+      b.setup(length, size, bc, plugin, dir);
+      long end = System.nanoTime() + (long) (warmup * 1e9);
+      while (System.nanoTime() < end) {
+        b.run();
+      }
+      
+      double[] rates = new double[iterations];
+      for (int i = 0; i < iterations; i++) {
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+          ops += b.run();
+          elapsed = System.nanoTime() - start;
+        } while (elapsed < time * 1e9);
+        rates[i] = ops / (elapsed / 1e9);
+      }
+      b.teardown();
+      
+      double mean = 0;
+      for (double r : rates) {
+        mean += r;
+      }
+      mean /= iterations;
+      double var = 0;
+      for (double r : rates) {
+        var += (r - mean) * (r - mean);
+      }
+      double error = (iterations > 1) ? Math.sqrt(var / (iterations-1)) : 0;
+      String p = (plugin == null) ? "-" : plugin;
+      System.out.println(String.format("%-8s %9d %5d %-9s %-13s %14.3f %12.3f %14.0f", 
+          name, length, size, bc, p, mean, error, 1e9/mean));
+      if (writer != null) {
+        writer.println(name+"\t"+length+"\t"+size+"\t"+bc+"\t"+p+"\t"+mean+"\t"+error+"\t"+(1e9/mean));
+        writer.flush();
+      }
+    } catch (IllegalArgumentException e) {
+      // e.g. particles that do not fit on the lattice
+      System.out.println(String.format("%-8s %9d %5d %-9s %-13s skipped: %s", 
+          name, length, size, bc, (plugin == null) ? "-" : plugin, e.getMessage()));
+    } finally {
+      delete(dir);
+    }
+  }
+  
+  private static void delete(Path dir) throws IOException {
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+      
+      @Override
+      public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+        Files.delete(d);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+  
+  public static void main(String[] args) throws IOException {
+    Benchmarks app = new Benchmarks();
+    JCommander jc = new JCommander(app);
+    jc.setProgramName("Benchmarks");
+    try {
+      jc.parse(args);
+    } catch (ParameterException e) {
+      System.err.println(e.getMessage());
+      jc.usage();
+      System.exit(-1);
+    }
+    
+    app.run();
+  }
+  
+}
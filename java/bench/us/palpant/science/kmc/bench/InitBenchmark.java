@@ -0,0 +1,36 @@
+package us.palpant.science.kmc.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import us.palpant.science.kmc.Main;
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * Build the Lattice, the TransitionTemplates and the Engine of the model.
+ * The operation is one build
+ * @author palpant
+ *
+ */
+public class InitBenchmark extends Benchmark {
+  
+  private Main main;
+
+  @Override
+  public void setup(int length, int size, String bc, String plugin, Path dir) throws IOException {
+    main = newMain(length, size, bc);
+  }
+
+  @Override
+  public long run() {
+    Lattice lattice = main.initLattice();
+    main.initEngine(lattice);
+    return 1;
+  }
+  
+  @Override
+  public void teardown() {
+    main = null;
+  }
+
+}
@@ -0,0 +1,48 @@
+package us.palpant.science.kmc.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import us.palpant.science.kmc.Engine;
+import us.palpant.science.kmc.Event;
+import us.palpant.science.kmc.Main;
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.random.Lcg48;
+import us.palpant.science.kmc.random.RandomGenerator;
+
+/**
+ * Select and perform events with the engine alone, without the
+ * simulation clock or any plugins. The operation is one event
+ * @author palpant
+ *
+ */
+public class ManagerBenchmark extends Benchmark {
+  
+  public static final int BATCH = 10_000;
+  
+  private Engine engine;
+  private final RandomGenerator rng = new Lcg48(Long.parseLong(SEED));
+  private final Event event = new Event();
+
+  @Override
+  public void setup(int length, int size, String bc, String plugin, Path dir) throws IOException {
+    Main main = newMain(length, size, bc);
+    Lattice lattice = main.initLattice();
+    engine = main.initEngine(lattice);
+  }
+
+  @Override
+  public long run() {
+    for (int i = 0; i < BATCH; i++) {
+      engine.next(rng, Double.POSITIVE_INFINITY);
+      engine.fire(rng, event);
+    }
+    return BATCH;
+  }
+  
+  @Override
+  public void teardown() {
+    engine = null;
+  }
+
+}
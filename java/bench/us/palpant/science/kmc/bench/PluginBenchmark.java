@@ -0,0 +1,55 @@
+package us.palpant.science.kmc.bench;
+
+import java.nio.file.Path;
+
+import us.palpant.Ark;
+
+/**
+ * Run the full simulation loop with a single plugin, called on every step.
+ * The operation is one event, so the per-step cost of the plugin is the
+ * difference from the run benchmark with the same parameters
+ * @author palpant
+ *
+ */
+public class PluginBenchmark extends RunBenchmark {
+  
+  public static final String[] PLUGINS = { "status", "nobjects", "distribution", 
+    "twobody", "trajectory", "bintraj" };
+  
+  @Override
+  protected void configure(Ark config, String plugin, Path dir) {
+    Ark p = new Ark();
+    switch (plugin) {
+    case "status":
+      p.set("type", "status");
+      p.set("stride", "1000");
+      break;
+    case "nobjects":
+    case "distribution":
+    case "twobody":
+      p.set("type", plugin);
+      p.set("state", "nuc");
+      p.set("name", dir.resolve(plugin+".txt").toString());
+      break;
+    case "trajectory":
+      p.set("type", "trajectory");
+      p.set("name", dir.resolve("sim.trj").toString());
+      break;
+    case "bintraj":
+      p.set("type", "trajectory");
+      p.set("format", "binary");
+      p.set("name", dir.resolve("sim.bin").toString());
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown plugin: "+plugin);
+    }
+    config.set("kmc.plugins", new String[] { plugin });
+    config.set("kmc."+plugin, p);
+  }
+  
+  @Override
+  public boolean hasPlugins() {
+    return true;
+  }
+
+}
@@ -0,0 +1,71 @@
+package us.palpant.science.kmc.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import us.palpant.Ark;
+import us.palpant.science.kmc.Engine;
+import us.palpant.science.kmc.KineticMonteCarlo;
+import us.palpant.science.kmc.Main;
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.plugins.Plugin;
+
+/**
+ * Run the full simulation loop, without any plugins.
+ * The operation is one event (step)
+ * @author palpant
+ *
+ */
+public class RunBenchmark extends Benchmark {
+  
+  /**
+   * The number of events to aim for in each batch
+   */
+  public static final long BATCH = 10_000;
+  
+  private KineticMonteCarlo kmc;
+  private List<Plugin> plugins;
+  /**
+   * The simulated time of a batch, which starts small and is adjusted
+   * to the rate of events, since some plugins take O(length) per step
+   */
+  private double chunk;
+
+  @Override
+  public void setup(int length, int size, String bc, String plugin, Path dir) throws IOException {
+    Ark config = newConfig(length, size, bc);
+    configure(config, plugin, dir);
+    Main main = new Main(config);
+    Lattice lattice = main.initLattice();
+    Engine engine = main.initEngine(lattice);
+    plugins = main.initPlugins(lattice);
+    kmc = main.initApp(engine, plugins);
+    chunk = 1e-6;
+  }
+  
+  /**
+   * Add the plugins of the run to its configuration
+   */
+  protected void configure(Ark config, String plugin, Path dir) { }
+
+  @Override
+  public long run() throws IOException {
+    long start = kmc.getNumEvents();
+    kmc.setTFinal(kmc.getTime() + chunk);
+    kmc.run();
+    long n = kmc.getNumEvents() - start;
+    chunk *= Math.min(2, Math.max(0.5, (double) BATCH / Math.max(n, 1)));
+    return n;
+  }
+  
+  @Override
+  public void teardown() throws IOException {
+    for (Plugin p : plugins) {
+      p.close();
+    }
+    plugins = null;
+    kmc = null;
+  }
+
+}
@@ -0,0 +1,112 @@
+package us.palpant.science;
+
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JPanel;
+
+import us.palpant.science.kmc.trajectory.Kymograph;
+
+/**
+ * Draw a Kymograph, with position across and time down
+ * Dragging pans the view and the mouse wheel zooms around the cursor
+ * (only in time if shift is held). Each repaint reads only the cells of
+ * the level whose resolution matches the screen
+ * @author palpant
+ *
+ */
+public class KymographPanel extends JPanel {
+
+  private static final long serialVersionUID = 4511658210493713046L;
+  private static final double ZOOM = 1.25;
+  
+  private final Kymograph kymograph;
+  private double x0, t0;
+  private double sitesPerPixel, timePerPixel;
+  private BufferedImage image;
+  private int lastX, lastY;
+
+  public KymographPanel(Kymograph kymograph) {
+    this.kymograph = kymograph;
+    t0 = kymograph.getStartTime();
+    
+    MouseAdapter mouse = new MouseAdapter() {
+      @Override
+      public void mousePressed(MouseEvent e) {
+        lastX = e.getX();
+        lastY = e.getY();
+      }
+      
+      @Override
+      public void mouseDragged(MouseEvent e) {
+        x0 -= (e.getX() - lastX) * sitesPerPixel;
+        t0 -= (e.getY() - lastY) * timePerPixel;
+        lastX = e.getX();
+        lastY = e.getY();
+        repaint();
+      }
+      
+      @Override
+      public void mouseWheelMoved(MouseWheelEvent e) {
+        double scale = Math.pow(ZOOM, e.getWheelRotation());
+        if (!e.isShiftDown()) {
+          x0 += e.getX() * sitesPerPixel * (1 - scale);
+          sitesPerPixel *= scale;
+        }
+        t0 += e.getY() * timePerPixel * (1 - scale);
+        timePerPixel *= scale;
+        repaint();
+      }
+    };
+    addMouseListener(mouse);
+    addMouseMotionListener(mouse);
+    addMouseWheelListener(mouse);
+  }
+  
+  /**
+   * Fit the whole kymograph in the panel
+   */
+  public void reset() {
+    x0 = 0;
+    t0 = kymograph.getStartTime();
+    sitesPerPixel = (double) kymograph.getNumSites() / Math.max(1, getWidth());
+    timePerPixel = (kymograph.getEndTime() - kymograph.getStartTime()) / Math.max(1, getHeight());
+    repaint();
+  }
+  
+  @Override
+  public void paintComponent(Graphics g) {
+    super.paintComponent(g);
+    int width = getWidth();
+    int height = getHeight();
+    if (width == 0 || height == 0) {
+      return;
+    }
+    if (sitesPerPixel == 0) {
+      reset();
+    }
+    if (image == null || image.getWidth() != width || image.getHeight() != height) {
+      image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    }
+    
+    int level = kymograph.getLevel(sitesPerPixel, timePerPixel);
+    int[] columns = new int[width];
+    for (int px = 0; px < width; px++) {
+      columns[px] = kymograph.getColumn(level, x0 + px*sitesPerPixel);
+    }
+    int[] pixels = new int[width];
+    for (int py = 0; py < height; py++) {
+      int row = kymograph.getRow(level, t0 + py*timePerPixel);
+      for (int px = 0; px < width; px++) {
+        // Occupied cells are dark
+        pixels[px] = 255 - kymograph.get(level, row, columns[px]);
+      }
+      image.getRaster().setPixels(0, py, width, 1, pixels);
+    }
+    g.drawImage(image, 0, 0, null);
+  }
+
+}
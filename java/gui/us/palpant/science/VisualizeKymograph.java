@@ -0,0 +1,65 @@
+package us.palpant.science;
+
+import java.awt.BorderLayout;
+import java.awt.EventQueue;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.swing.JFrame;
+
+import us.palpant.cmd.PathConverter;
+import us.palpant.cmd.ReadablePathValidator;
+import us.palpant.science.kmc.trajectory.Kymograph;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Pan and zoom around a kymograph made with BuildKymograph
+ * @author palpant
+ *
+ */
+public class VisualizeKymograph {
+
+  private JFrame frame = new JFrame();
+  
+  @Parameter(names = { "-i", "--input" }, description = "Input kymograph", required = true,
+      converter = PathConverter.class, validateWith = ReadablePathValidator.class)
+  public Path inputFile;
+
+  public static void main(String[] args) throws IOException {
+    final VisualizeKymograph app = new VisualizeKymograph();
+    JCommander jc = new JCommander(app);
+    jc.setProgramName("VisualizeKymograph");
+
+    try {
+      jc.parse(args);
+    } catch (ParameterException e) {
+      System.err.println(e.getMessage());
+      jc.usage();
+      System.exit(-1);
+    }
+    
+    EventQueue.invokeLater(new Runnable() {
+      public void run() {
+        try {
+          app.initialize();
+          app.frame.setVisible(true);
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    });
+  }
+
+  private void initialize() throws IOException {
+    frame.setBounds(100, 100, 800, 600);
+    frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    frame.setTitle(inputFile.getFileName().toString());
+    
+    Kymograph kymograph = new Kymograph(inputFile);
+    frame.getContentPane().add(new KymographPanel(kymograph), BorderLayout.CENTER);
+  }
+
+}
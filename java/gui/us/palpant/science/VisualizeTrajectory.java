@@ -3,7 +3,9 @@ package us.palpant.science;
 import java.awt.EventQueue;
 
 import javax.swing.JFrame;
-import javax.swing.JProgressBar;
+import javax.swing.JSlider;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import us.palpant.cmd.PathConverter;
 import us.palpant.cmd.ReadablePathValidator;
@@ -17,22 +19,37 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.trajectory.TrajectoryReader;
 
 public class VisualizeTrajectory {
 
+  /**
+   * The number of positions of the slider between 0 and tFinal
+   */
+  private static final int SLIDER_STEPS = 10_000;
+
   private JFrame frame = new JFrame();
-  JProgressBar progressBar = new JProgressBar();
+  JSlider slider = new JSlider(0, SLIDER_STEPS, 0);
+  /**
+   * Whether the slider is being moved by the playback rather than the user
+   */
+  private boolean playing = false;
   private LatticePanel latticePanel;
+  private TrajectoryReader reader;
   private boolean finished = false;
   private double t = 0;
   
-  @Parameter(names = { "-i", "--input" }, description = "Input file with trajectory", required = true,
+  @Parameter(names = { "-i", "--input" }, description = "Input file with binary trajectory", required = true,
       converter = PathConverter.class, validateWith = ReadablePathValidator.class)
   public Path inputFile;
   @Parameter(names = { "-n", "--nuc-size" }, description = "Nucleosome size (bp)")
   public int nucSize = 147;
-  @Parameter(names = { "-t", "--time" }, description = "Final time", required = true)
-  public double tFinal;
+  @Parameter(names = { "-t", "--time" }, description = "Final time (default: end of trajectory)")
+  public double tFinal = -1;
   @Parameter(names = { "-s", "--speed" }, description = "Simulation speed")
   public double speed = 1;
 
@@ -75,11 +92,26 @@ public class VisualizeTrajectory {
   private void initialize() throws IOException, ClassNotFoundException {
     frame.setBounds(100, 100, 800, 80);
     frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    
+    reader = new TrajectoryReader(inputFile);
+    if (tFinal < 0) {
+      tFinal = reader.getEndTime();
+    }
 
-    progressBar.setMaximum((int) (100*tFinal));
-    frame.getContentPane().add(progressBar, BorderLayout.SOUTH);
+    // Dragging or clicking the slider scrubs to that time, and playback continues from there
+    slider.addChangeListener(new ChangeListener() {
+      public void stateChanged(ChangeEvent e) {
+        if (!playing) {
+          t = tFinal * slider.getValue() / SLIDER_STEPS;
+          finished = (t >= tFinal);
+          show();
+        }
+      }
+    });
+    frame.getContentPane().add(slider, BorderLayout.SOUTH);
     
-    latticePanel = new LatticePanel(100, 100);
+    latticePanel = new LatticePanel(reader.size(), nucSize);
+    latticePanel.setPositions(getPositions());
     frame.getContentPane().add(latticePanel, BorderLayout.CENTER);
 
     new javax.swing.Timer(30, new ActionListener() {
@@ -90,32 +122,44 @@ public class VisualizeTrajectory {
   }
 
   private void loop() {
-    if (!finished) {
+    // Hold the frame while the user is dragging the slider
+    if (!finished && !slider.getValueIsAdjusting()) {
       t += speed * tFinal / 2000;
-      progressBar.setValue((int) (100*t));
       if (t >= tFinal) {
+        t = tFinal;
         finished = true;
-        progressBar.setValue(progressBar.getMaximum());
       }
-
-//      if (nextFrame.getTime() < t) {
-//        int[] positions = nextFrame.getPositions();
-//        latticePanel.setPositions(positions);
-//        
-//        while (nextFrame != null && nextFrame.getTime() < t) {
-//          try {
-//            nextFrame = reader.readFrame();
-//          } catch (ClassNotFoundException | IOException e) {
-//            e.printStackTrace();
-//            finished = true;
-//          }
-//        }
-//
-//        if (nextFrame == null) {
-//          finished = true;
-//          progressBar.setValue(progressBar.getMaximum());
-//        }
-//      }
+      playing = true;
+      slider.setValue((int) (SLIDER_STEPS * t / tFinal));
+      playing = false;
+      
+      show();
+    }
+  }
+  
+  /**
+   * Seek the trajectory to the current time and draw it
+   */
+  private void show() {
+    reader.seek(t);
+    latticePanel.setPositions(getPositions());
+  }
+  
+  /**
+   * @return the centers of the particles in the current frame,
+   *   which mark their first site with their own State
+   */
+  private int[] getPositions() {
+    List<String> states = reader.getStateNames();
+    Lattice lattice = reader.getLattice();
+    int n = 0;
+    int[] positions = new int[lattice.size()];
+    for (int i = 0; i < lattice.size(); i++) {
+      String state = states.get(lattice.getId(i));
+      if (!state.equals("empty") && !state.equals("steric")) {
+        positions[n++] = i + nucSize/2;
+      }
     }
+    return Arrays.copyOf(positions, n);
   }
 }
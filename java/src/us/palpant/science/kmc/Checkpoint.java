@@ -0,0 +1,114 @@
+package us.palpant.science.kmc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * Periodically save the full state of a simulation, so that it can be
+ * resumed after it has been killed and continue exactly as it would have
+ * 
+ * A checkpoint is the magic number "KMCC", a version, the Lattice, and
+ * the state of the KineticMonteCarlo (time, RNG, Engine, and the Schedule
+ * and accumulators of each Plugin), big-endian. Everything that can be
+ * rebuilt from the Lattice and the configuration (e.g. the rates of the
+ * Transitions) is rebuilt rather than saved. It is written to a temporary
+ * file through a FileChannel, forced to disk, and atomically moved over
+ * the previous checkpoint, so a checkpoint is never partially written
+ * @author palpant
+ *
+ */
+public class Checkpoint {
+  
+  private static final Logger log = Logger.getLogger(Checkpoint.class);
+  
+  public static final byte[] MAGIC = { 'K', 'M', 'C', 'C' };
+  public static final int VERSION = 3;
+  private static final int BUFFER_SIZE = 1 << 20;
+  
+  private final Path path;
+  private final Lattice lattice;
+  private final long intervalNanos;
+  private long lastWrite = System.nanoTime();
+  
+  /**
+   * @param path the file to write checkpoints to
+   * @param lattice the Lattice of the simulation
+   * @param interval the wall-clock time between checkpoints, in seconds
+   */
+  public Checkpoint(Path path, Lattice lattice, double interval) {
+    this.path = path;
+    this.lattice = lattice;
+    intervalNanos = (long) (interval * 1e9);
+  }
+  
+  /**
+   * @return whether it is time to write another checkpoint
+   */
+  public boolean isDue() {
+    return System.nanoTime() - lastWrite >= intervalNanos;
+  }
+  
+  /**
+   * Write a checkpoint of a simulation
+   * @param kmc the simulation, which must be between events
+   * @throws IOException
+   */
+  public void write(KineticMonteCarlo kmc) throws IOException {
+    long start = System.nanoTime();
+    Path tmp = Paths.get(path+".tmp");
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, 
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Channels.newOutputStream(channel), BUFFER_SIZE));
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+      lattice.save(out);
+      kmc.save(out);
+      out.flush();
+      channel.force(true);
+    }
+    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    lastWrite = System.nanoTime();
+    log.info("Wrote checkpoint at t = "+kmc.getTime()+" in "+(lastWrite-start)/1_000_000+" ms");
+  }
+  
+  /**
+   * Open a checkpoint to resume from
+   * @param path the checkpoint
+   * @return the checkpoint, positioned after its header
+   * @throws IOException if path is not a checkpoint
+   */
+  public static DataInputStream open(Path path) throws IOException {
+    log.info("Resuming from checkpoint: "+path);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(path), BUFFER_SIZE));
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      in.close();
+      throw new IOException("Not a checkpoint: "+path);
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      in.close();
+      throw new IOException("Unsupported checkpoint version "+version+": "+path);
+    }
+    return in;
+  }
+
+}
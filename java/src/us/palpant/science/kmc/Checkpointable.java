@@ -0,0 +1,30 @@
+package us.palpant.science.kmc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Something whose state can be saved to a Checkpoint, and restored
+ * so that the simulation continues exactly as if it had not stopped
+ * @author palpant
+ *
+ */
+public interface Checkpointable {
+
+  /**
+   * Write the state
+   * @param out the checkpoint to write to
+   * @throws IOException
+   */
+  public void save(DataOutput out) throws IOException;
+  
+  /**
+   * Read the state written by save, into an object
+   * that was made with the same configuration
+   * @param in the checkpoint to read from
+   * @throws IOException
+   */
+  public void restore(DataInput in) throws IOException;
+  
+}
@@ -1,9 +1,6 @@
 package us.palpant.science.kmc;
 
-import java.util.HashSet;
-import java.util.Set;
-
-import org.apache.commons.lang3.ArrayUtils;
+import java.util.Arrays;
 
 /**
  * An Edge in a dependency graph
@@ -36,14 +33,21 @@ public class Contingency {
   /**
    * Get the union set of coordinates for an array of Contingencies
    * @param c an array of Contingencies
-   * @return the union set of coordinates in the Contingencies
+   * @return the distinct coordinates in the Contingencies, in increasing order
    */
   public static final int[] getCoordinates(Contingency[] contingencies) {
-    Set<Integer> coordSet = new HashSet<>();
-    for (Contingency c : contingencies) {
-      coordSet.add(c.getCoord());
+    int[] coords = new int[contingencies.length];
+    for (int j = 0; j < contingencies.length; j++) {
+      coords[j] = contingencies[j].getCoord();
+    }
+    Arrays.sort(coords);
+    int n = 0;
+    for (int j = 0; j < coords.length; j++) {
+      if (n == 0 || coords[j] != coords[n-1]) {
+        coords[n++] = coords[j];
+      }
     }
-    return ArrayUtils.toPrimitive(coordSet.toArray(new Integer[coordSet.size()]));
+    return (n == coords.length) ? coords : Arrays.copyOf(coords, n);
   }
 
 }
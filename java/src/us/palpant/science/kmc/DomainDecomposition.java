@@ -0,0 +1,459 @@
+package us.palpant.science.kmc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.plugins.Plugin;
+import us.palpant.science.kmc.random.Lcg48;
+import us.palpant.science.kmc.random.RandomGenerator;
+
+/**
+ * Run a single large simulation on several threads, by splitting the
+ * Lattice into domains (the synchronous sublattice algorithm, Shim and
+ * Amar 2005)
+ *
+ * Each of the domains is split in two, and the resulting sublattices
+ * alternate between two colors. Each sublattice owns the Transitions at
+ * its sites, and has its own copy of the part of the Lattice that they
+ * can touch (its sites plus the reach of the Transitions on either side)
+ * with its own TransitionManager and RNG. Time is advanced in windows:
+ * in each window, all sublattices of one color (chosen at random) do
+ * exact KMC in parallel up to the end of the window, and then all
+ * sublattices of the other color do the same. Sublattices of the same
+ * color never touch the same sites, since each is at least as long as
+ * the reach of the Transitions, so a particle that straddles a boundary
+ * is simply handled by the sublattice of its site. Before each phase,
+ * a sublattice copies the sites that it shares with its neighbors.
+ *
+ * The events of each window are replayed onto the whole Lattice in time
+ * order for the plugins, on their own thread while the next window is
+ * being computed. An event of the second phase that touches a shared
+ * zone is delayed until after the last event of the first phase that
+ * touched the same zone, so that the replay is consistent.
+ *
+ * Error bound: inside a sublattice the dynamics is exact, and only the
+ * interactions across a boundary are approximate. A sublattice in the
+ * first phase sees its neighbors' shared sites as they were at the start
+ * of the window, and one in the second phase sees them as they are at
+ * the end of it, so a boundary event uses a state that is at most one
+ * window out of date. If K is the total rate of the Transitions that
+ * touch a shared zone, this happens with probability at most K*window
+ * per window and zone, so the error of boundary observables is
+ * O(K*window), and vanishes as the window goes to zero. The number of
+ * events that had to be delayed is logged as an empirical check; a
+ * window of at most 0.1 / K is recommended
+ * @author palpant
+ *
+ */
+public class DomainDecomposition {
+
+  private static final Logger log = Logger.getLogger(DomainDecomposition.class);
+
+  private final Lattice lattice;
+  private final List<Plugin> plugins;
+  private final Sublattice[] sublattices;
+  /**
+   * The reach of the Transitions to the left and right of their site
+   */
+  private final int left, right;
+  private final List<List<Callable<Void>>> phases = new ArrayList<>();
+  private final ForkJoinPool pool;
+  private final ExecutorService replayer;
+  private RandomGenerator rng = new Lcg48();
+  private double window = 1, tFinal;
+  private double t = 0;
+  private long step = 0;
+  private long totalEvents = 0, totalDelayed = 0;
+
+  /**
+   * @param main the Main application, for the configuration of the engines
+   * @param lattice the Lattice to simulate
+   * @param templates the transition templates of the whole Lattice
+   * @param plugins the plugins, which see the whole Lattice
+   * @param domains the number of domains
+   * @param threads the number of threads to simulate the domains with
+   */
+  public DomainDecomposition(Main main, Lattice lattice, List<TransitionTemplate> templates,
+      List<Plugin> plugins, int domains, int threads) {
+    this.lattice = lattice;
+    this.plugins = plugins;
+    int l = 0, r = 0;
+    for (TransitionTemplate template : templates) {
+      for (Condition c : template.getConditions()) {
+        l = Math.max(l, -c.getCoord());
+        r = Math.max(r, c.getCoord());
+      }
+      for (Action a : template.getActions()) {
+        l = Math.max(l, -a.getCoord());
+        r = Math.max(r, a.getCoord());
+      }
+      if (template.size() > 0 && (template.getFirst()-l < 0 || template.getLast()-1+r >= lattice.size())) {
+        throw new IllegalArgumentException("Cannot decompose a transition that wraps around the lattice: "+template);
+      }
+    }
+    left = l;
+    right = r;
+
+    int n = 2 * domains;
+    if (lattice.size() / n < left + right) {
+      throw new IllegalArgumentException("Sublattices of "+lattice.size()/n
+          +" sites are shorter than the reach of the transitions ("+(left+right)+")");
+    }
+    log.info("Splitting the lattice into "+n+" sublattices of about "+lattice.size()/n+" sites");
+    sublattices = new Sublattice[n];
+    for (int s = 0; s < n; s++) {
+      sublattices[s] = new Sublattice(main, templates, s, (int) ((long) s*lattice.size()/n),
+          (int) ((long) (s+1)*lattice.size()/n));
+    }
+
+    for (int color = 0; color < 2; color++) {
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (int s = color; s < n; s += 2) {
+        final Sublattice sub = sublattices[s];
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            sub.run();
+            return null;
+          }
+        });
+      }
+      phases.add(tasks);
+    }
+    pool = new ForkJoinPool(threads);
+    replayer = Executors.newSingleThreadExecutor();
+  }
+
+  public void run() throws IOException {
+    log.info("Beginning simulation with windows of "+window+" and random numbers from "+rng.getLineage());
+    for (int s = 0; s < sublattices.length; s++) {
+      sublattices[s].rng = rng.split(s);
+    }
+
+    try {
+      int buffer = 0;
+      double tStart = 0;
+      Future<?> replay = null;
+      while (tStart < tFinal) {
+        double tEnd = Math.min(tStart+window, tFinal);
+        compute(buffer, tStart, tEnd);
+        if (replay != null) {
+          replay.get();
+          if (isFinished()) {
+            break;
+          }
+        }
+        replay = replayer.submit(newReplay(buffer, tEnd));
+        buffer = 1 - buffer;
+        tStart = tEnd;
+      }
+      if (replay != null) {
+        replay.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while running domains", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException("Error running domains", e.getCause());
+    } finally {
+      pool.shutdown();
+      replayer.shutdown();
+    }
+
+    log.info("Simulation complete at t = "+t+" ("+totalDelayed+" of "+totalEvents
+        +" events were delayed at sublattice boundaries)");
+  }
+
+  /**
+   * Advance all sublattices through a window, one color at a time
+   * @param buffer the event buffer to record the events in
+   */
+  private void compute(int buffer, double tStart, double tEnd) throws InterruptedException, ExecutionException {
+    int first = rng.nextBoolean() ? 0 : 1;
+    for (Sublattice sub : sublattices) {
+      int phase = (sub.index % 2 == first) ? 0 : 1;
+      sub.start(buffer, tStart, tEnd, phase, step+phase);
+    }
+    step += 2;
+    for (int phase = 0; phase < 2; phase++) {
+      for (Future<Void> f : pool.invokeAll(phases.get((first+phase) % 2))) {
+        f.get();
+      }
+    }
+  }
+
+  /**
+   * Replay the events of a window onto the Lattice, in time order, for the plugins
+   */
+  private Runnable newReplay(final int buffer, final double tEnd) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        PriorityQueue<Sublattice> queue = new PriorityQueue<>(sublattices.length, new Comparator<Sublattice>() {
+          @Override
+          public int compare(Sublattice a, Sublattice b) {
+            int c = Double.compare(a.peek(buffer).getTime(), b.peek(buffer).getTime());
+            if (c == 0) {
+              c = Integer.compare(a.phases[buffer], b.phases[buffer]);
+            }
+            return c;
+          }
+        });
+        for (Sublattice sub : sublattices) {
+          sub.next[buffer] = 0;
+          if (sub.peek(buffer) != null) {
+            queue.add(sub);
+          }
+          totalEvents += sub.nEvents[buffer];
+          totalDelayed += sub.nDelayed[buffer];
+        }
+
+        while (!queue.isEmpty()) {
+          Sublattice sub = queue.poll();
+          Event event = sub.peek(buffer);
+          double tNext = event.getTime();
+          for (Plugin p : plugins) {
+            p.getSchedule().process(p, t, tNext);
+          }
+          event.apply(lattice);
+          event.setTime(tNext, tNext-t);
+          for (Plugin p : plugins) {
+            p.performed(event);
+          }
+          t = tNext;
+          sub.next[buffer]++;
+          if (sub.peek(buffer) != null) {
+            queue.add(sub);
+          }
+        }
+
+        for (Plugin p : plugins) {
+          p.getSchedule().process(p, t, tEnd);
+        }
+        t = tEnd;
+      }
+    };
+  }
+
+  /**
+   * @return whether any plugin has asked to stop the simulation
+   */
+  private boolean isFinished() {
+    for (Plugin p : plugins) {
+      if (p.isFinished()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A part of the Lattice that is simulated by one thread at a time
+   */
+  private class Sublattice {
+
+    private final int index;
+    /**
+     * The sites that this sublattice owns
+     */
+    private final int lo, hi;
+    /**
+     * The coordinate of the first site of the local Lattice
+     */
+    private final int offset;
+    private final Lattice local;
+    private final TransitionManager engine;
+    private RandomGenerator rng;
+    /**
+     * The events of the current and previous window
+     */
+    private final Event[][] events = { new Event[16], new Event[16] };
+    private final int[] nEvents = new int[2], nDelayed = new int[2], next = new int[2];
+    /**
+     * The phase of the window in each buffer
+     */
+    private final int[] phases = new int[2];
+    /**
+     * The last time that an event touched the zone shared with each neighbor
+     */
+    private double touchedLeft, touchedRight;
+    private int buffer;
+    private double tStart, tEnd;
+    /**
+     * The step of the current phase, and of the last phase that this ran in
+     */
+    private long step, ran = -1;
+
+    Sublattice(Main main, List<TransitionTemplate> templates, int index, int lo, int hi) {
+      this.index = index;
+      this.lo = lo;
+      this.hi = hi;
+      offset = Math.max(0, lo-left);
+      local = new Lattice(Math.min(lattice.size(), hi+right) - offset, Lattice.BoundaryCondition.FIXED);
+      for (int i = 0; i < local.size(); i++) {
+        local.setId(i, lattice.getId(offset+i));
+      }
+
+      List<TransitionTemplate> owned = new ArrayList<>();
+      for (TransitionTemplate template : templates) {
+        int first = Math.max(lo, template.getFirst());
+        int last = Math.min(hi, template.getLast());
+        if (first < last) {
+          owned.add(new TransitionTemplate(template.getName(), template.getConditions(),
+              template.getActions(), template.getRate(), first-offset, last-offset));
+        }
+      }
+      GapIndex[] gaps = main.initGapIndexes(local, owned);
+      engine = main.initManager(local, main.initTransitionTable(owned), gaps);
+      for (Event[] buffer : events) {
+        for (int i = 0; i < buffer.length; i++) {
+          buffer[i] = new Event();
+        }
+      }
+    }
+
+    void start(int buffer, double tStart, double tEnd, int phase, long step) {
+      this.buffer = buffer;
+      this.tStart = tStart;
+      this.tEnd = tEnd;
+      this.step = step;
+      phases[buffer] = phase;
+      nEvents[buffer] = 0;
+      nDelayed[buffer] = 0;
+      touchedLeft = Double.NEGATIVE_INFINITY;
+      touchedRight = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Copy the shared sites from the neighbors, and do KMC until the end of the window
+     */
+    void run() {
+      Sublattice before = (index > 0) ? sublattices[index-1] : null;
+      Sublattice after = (index < sublattices.length-1) ? sublattices[index+1] : null;
+      sync(before);
+      sync(after);
+      ran = step;
+
+      int margin = left + right;
+      double t = tStart, last = tStart;
+      while (true) {
+        t += engine.next(rng, tEnd-t);
+        if (t >= tEnd) {
+          break;
+        }
+
+        if (nEvents[buffer] == events[buffer].length) {
+          Event[] grown = Arrays.copyOf(events[buffer], 2*nEvents[buffer]);
+          for (int i = nEvents[buffer]; i < grown.length; i++) {
+            grown[i] = new Event();
+          }
+          events[buffer] = grown;
+        }
+        Event event = events[buffer][nEvents[buffer]++];
+        engine.fire(rng, event);
+        event.translate(offset);
+
+        // The changed sites bound the sites that the Transition touched
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int j = 0; j < event.size(); j++) {
+          min = Math.min(min, event.getCoord(j));
+          max = Math.max(max, event.getCoord(j));
+        }
+        boolean touchesLeft = (before != null && min-margin < before.hi+right);
+        boolean touchesRight = (after != null && max+margin >= after.lo-left);
+
+        double time = Math.max(t, last);
+        if (phases[buffer] == 1) {
+          double delayed = time;
+          if (touchesLeft) {
+            delayed = Math.max(delayed, before.touchedRight);
+          }
+          if (touchesRight) {
+            delayed = Math.max(delayed, after.touchedLeft);
+          }
+          if (delayed > t) {
+            nDelayed[buffer]++;
+          }
+          time = delayed;
+        }
+        if (touchesLeft) {
+          touchedLeft = time;
+        }
+        if (touchesRight) {
+          touchedRight = time;
+        }
+        event.setTime(time, 0);
+        last = time;
+      }
+    }
+
+    /**
+     * Copy the sites that are shared with a neighbor from its local Lattice,
+     * if it has run since this did
+     */
+    private void sync(Sublattice neighbor) {
+      if (neighbor == null || neighbor.ran < ran) {
+        return;
+      }
+      int from = Math.max(offset, neighbor.offset);
+      int to = Math.min(offset+local.size(), neighbor.offset+neighbor.local.size());
+      for (int i = from; i < to; i++) {
+        int id = neighbor.local.getId(i-neighbor.offset);
+        if (local.getId(i-offset) != id) {
+          engine.set(i-offset, id);
+        }
+      }
+    }
+
+    /**
+     * @return the next event to replay from a buffer, or null if there are no more
+     */
+    Event peek(int buffer) {
+      if (next[buffer] == nEvents[buffer]) {
+        return null;
+      }
+      return events[buffer][next[buffer]];
+    }
+
+  }
+
+  public void setWindow(double window) {
+    log.info("Setting window = "+window);
+    this.window = window;
+  }
+
+  public void setTFinal(double tFinal) {
+    log.info("Setting tFinal = "+tFinal);
+    this.tFinal = tFinal;
+  }
+
+  /**
+   * @param rng the generator that the stream of each sublattice is split from
+   */
+  public void setRandom(RandomGenerator rng) {
+    log.info("Using random number generator "+rng.getName());
+    this.rng = rng;
+  }
+
+  public void setSeed(long seed) {
+    log.info("Setting seed for RNG = "+seed);
+    rng.setSeed(seed);
+  }
+
+}
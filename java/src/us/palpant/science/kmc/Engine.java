@@ -0,0 +1,36 @@
+package us.palpant.science.kmc;
+
+import us.palpant.science.kmc.random.RandomGenerator;
+
+/**
+ * Advances the Lattice by one event at a time
+ * Choosing the next event is separate from performing it, so that
+ * observers can see the Lattice as it was up until the time of the event.
+ * Engines are checkpointed between events, after fire
+ * @author palpant
+ *
+ */
+public interface Engine extends Checkpointable {
+
+  /**
+   * Select the next event, without performing it
+   * @param rng the source of random numbers
+   * @param dtMax the longest waiting time of interest (e.g. until tFinal)
+   * @return the waiting time before the event, or Double.POSITIVE_INFINITY
+   *   if no event can happen within dtMax
+   */
+  public double next(RandomGenerator rng, double dtMax);
+  
+  /**
+   * Perform the event selected by the last call to next
+   * @param rng the source of random numbers
+   * @param event the Event to record the changes to the Lattice in
+   */
+  public void fire(RandomGenerator rng, Event event);
+  
+  /**
+   * @return the total rate of all events
+   */
+  public double getKTotal();
+  
+}
@@ -0,0 +1,183 @@
+package us.palpant.science.kmc;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import us.palpant.Ark;
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.plugins.AsyncPlugin;
+import us.palpant.science.kmc.plugins.Mergeable;
+import us.palpant.science.kmc.plugins.Plugin;
+import us.palpant.science.kmc.random.RandomGenerator;
+
+/**
+ * Run independent replicas of a simulation concurrently
+ * Each replica has its own Lattice, Engine, plugins and stream of random numbers, and
+ * writes its outputs with its index before the extension (nnuc.3.txt).
+ * As they finish, the Mergeable plugins are combined in the order of
+ * the replicas, weighted by simulated time, and written under the
+ * original names once all replicas have finished
+ * @author palpant
+ *
+ */
+public class Ensemble {
+  
+  private static final Logger log = Logger.getLogger(Ensemble.class);
+  
+  private final Main main;
+  private final int replicas;
+  private final int threads;
+  private long seed;
+  /**
+   * The combined Mergeable plugins, or null for the others
+   */
+  private Plugin[] merged;
+  
+  public Ensemble(Main main, int replicas, int threads) {
+    this.main = main;
+    this.replicas = replicas;
+    this.threads = threads;
+    seed = new Random().nextLong();
+  }
+  
+  /**
+   * @param name the name of an output file
+   * @param replica the index of a replica
+   * @return name with the index of the replica before its extension
+   */
+  public static String getReplicaName(String name, int replica) {
+    int dot = name.lastIndexOf('.');
+    if (dot <= name.lastIndexOf('/') + 1) {
+      return name + "." + replica;
+    }
+    return name.substring(0, dot) + "." + replica + name.substring(dot);
+  }
+  
+  /**
+   * Run a single replica
+   * @param replica the index of the replica
+   * @return the plugins of the replica, which have been closed
+   */
+  private List<Plugin> runReplica(int replica) throws IOException {
+    log.info("Starting replica "+replica);
+    Lattice lattice = main.initLattice();
+    Engine engine = main.initEngine(lattice);
+    RandomGenerator rng = main.initRandom();
+    rng.setSeed(seed);
+    rng = rng.split(replica);
+    List<Plugin> plugins = main.initPlugins(lattice, replica, rng);
+    KineticMonteCarlo kmc = main.initApp(engine, plugins, rng, replica);
+    
+    kmc.run();
+    
+    for (Plugin p : plugins) {
+      p.close();
+    }
+    if (kmc.getMetrics() != null) {
+      kmc.getMetrics().close();
+    }
+    log.info("Finished replica "+replica);
+    return plugins;
+  }
+  
+  public void run() throws IOException {
+    log.info("Running "+replicas+" replicas on "+threads+" threads with base seed "+seed);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    CompletionService<List<Plugin>> completion = new ExecutorCompletionService<>(pool);
+    Map<Future<List<Plugin>>, Integer> indexes = new HashMap<>();
+    for (int r = 0; r < replicas; r++) {
+      final int replica = r;
+      indexes.put(completion.submit(new Callable<List<Plugin>>() {
+        @Override
+        public List<Plugin> call() throws IOException {
+          return runReplica(replica);
+        }
+      }), replica);
+    }
+    
+    // Replicas are merged in order as they finish, so only the replicas
+    // that finish before an earlier one are held until they can be merged
+    Map<Integer, List<Plugin>> finished = new HashMap<>();
+    int next = 0;
+    try {
+      for (int n = 0; n < replicas; n++) {
+        Future<List<Plugin>> f = completion.take();
+        finished.put(indexes.remove(f), f.get());
+        while (finished.containsKey(next)) {
+          merge(finished.remove(next));
+          next++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while running replicas", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException("Error running replica", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    
+    String[] pluginNames = (String[]) main.getApp().get("plugins");
+    for (int k = 0; k < merged.length; k++) {
+      if (merged[k] != null) {
+        log.info("Writing "+pluginNames[k]+" merged from "+replicas+" replicas");
+        merged[k].close();
+      }
+    }
+  }
+  
+  /**
+   * Combine the Mergeable plugins of a replica into the merged plugins,
+   * which are created from the first replica
+   * @param plugins the plugins of the replica, which have been closed
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private void merge(List<Plugin> plugins) throws IOException {
+    if (merged == null) {
+      Ark app = main.getApp();
+      String[] pluginNames = (String[]) app.get("plugins");
+      Lattice lattice = main.initLattice();
+      merged = new Plugin[pluginNames.length];
+      for (int k = 0; k < pluginNames.length; k++) {
+        if (unwrap(plugins.get(k)) instanceof Mergeable) {
+          Ark config = new Ark();
+          config.update((Ark) app.get(pluginNames[k]));
+          config.set("async", "false");
+          merged[k] = Plugin.forConfig(lattice, config);
+        }
+      }
+    }
+    
+    for (int k = 0; k < merged.length; k++) {
+      if (merged[k] != null) {
+        ((Mergeable) merged[k]).merge(unwrap(plugins.get(k)));
+      }
+    }
+  }
+  
+  private static Plugin unwrap(Plugin p) {
+    if (p instanceof AsyncPlugin) {
+      return ((AsyncPlugin) p).getPlugin();
+    }
+    return p;
+  }
+
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+  
+}
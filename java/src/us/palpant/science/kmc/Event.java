@@ -0,0 +1,164 @@
+package us.palpant.science.kmc;
+
+import java.util.Arrays;
+
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * The changes made to the Lattice by one event
+ * Only the sites whose State actually changed are listed, each with its
+ * old and new State ids, so that observers can update incrementally
+ * instead of rescanning the Lattice. A single Event is reused for
+ * every step, so it must not be retained
+ * @author palpant
+ *
+ */
+public class Event {
+  
+  private double time, waitingTime;
+  private String name;
+  private int size = 0;
+  private int[] coords = new int[8];
+  private int[] oldStates = new int[8];
+  private int[] newStates = new int[8];
+  
+  /**
+   * Start recording a new event
+   * @param name the name of the Transition that is performed
+   */
+  public void clear(String name) {
+    this.name = name;
+    size = 0;
+  }
+  
+  /**
+   * Set a site of the Lattice to a new State, and record the change
+   * @param lattice the Lattice to modify
+   * @param coord the coordinate to set
+   * @param newState the id of the new State
+   * @return the id of the old State
+   */
+  public int set(Lattice lattice, int coord, int newState) {
+    int oldState = lattice.getId(coord);
+    if (oldState != newState) {
+      lattice.setId(coord, newState);
+      add(lattice.index(coord), oldState, newState);
+    }
+    return oldState;
+  }
+  
+  /**
+   * Record a change to the Lattice
+   * @param coord the index of the site that changed
+   * @param oldState the id of the State before the event
+   * @param newState the id of the State after the event
+   */
+  public void add(int coord, int oldState, int newState) {
+    if (size == coords.length) {
+      coords = Arrays.copyOf(coords, 2*size);
+      oldStates = Arrays.copyOf(oldStates, 2*size);
+      newStates = Arrays.copyOf(newStates, 2*size);
+    }
+    coords[size] = coord;
+    oldStates[size] = oldState;
+    newStates[size++] = newState;
+  }
+  
+  /**
+   * Make this Event a copy of another, reusing its buffers
+   * @param other the Event to copy
+   */
+  public void copy(Event other) {
+    if (coords.length < other.size) {
+      coords = new int[other.coords.length];
+      oldStates = new int[other.coords.length];
+      newStates = new int[other.coords.length];
+    }
+    System.arraycopy(other.coords, 0, coords, 0, other.size);
+    System.arraycopy(other.oldStates, 0, oldStates, 0, other.size);
+    System.arraycopy(other.newStates, 0, newStates, 0, other.size);
+    size = other.size;
+    name = other.name;
+    time = other.time;
+    waitingTime = other.waitingTime;
+  }
+  
+  /**
+   * Move the recorded coordinates, e.g. from a sublattice into the Lattice
+   * @param offset the amount to add to each coordinate
+   */
+  public void translate(int offset) {
+    for (int j = 0; j < size; j++) {
+      coords[j] += offset;
+    }
+  }
+  
+  /**
+   * Apply the changes of this Event to a Lattice
+   * @param lattice the Lattice to modify
+   */
+  public void apply(Lattice lattice) {
+    for (int j = 0; j < size; j++) {
+      lattice.setId(coords[j], newStates[j]);
+    }
+  }
+  
+  /**
+   * @return the time at which the event happened
+   */
+  public double getTime() {
+    return time;
+  }
+  
+  /**
+   * @return the waiting time since the previous event
+   */
+  public double getWaitingTime() {
+    return waitingTime;
+  }
+  
+  public void setTime(double time, double waitingTime) {
+    this.time = time;
+    this.waitingTime = waitingTime;
+  }
+  
+  /**
+   * @return the name of the Transition that was performed
+   */
+  public String getName() {
+    return name;
+  }
+  
+  /**
+   * @return the number of sites that changed
+   */
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * @param j the index of a change
+   * @return the index of the site of change j
+   */
+  public int getCoord(int j) {
+    return coords[j];
+  }
+  
+  public int getOldState(int j) {
+    return oldStates[j];
+  }
+  
+  public int getNewState(int j) {
+    return newStates[j];
+  }
+  
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(name+" @ "+time+":");
+    for (int j = 0; j < size; j++) {
+      sb.append(" "+coords[j]+"="+State.forId(oldStates[j])+"->"+State.forId(newStates[j]));
+    }
+    return sb.toString();
+  }
+  
+}
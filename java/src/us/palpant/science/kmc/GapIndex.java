@@ -0,0 +1,181 @@
+package us.palpant.science.kmc;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.selection.SumTree;
+
+/**
+ * The adsorption of a hard rod, aggregated over all of its placements
+ * A rod of width w can adsorb at every placement that lies inside a gap
+ * of empty sites, so rather than tracking one Transition per site, the
+ * ends of each gap are kept in primitive arrays indexed by site, and the
+ * number of placements in each gap, max(0, gap - w + 1), is kept in a SumTree
+ * indexed by the start of the gap. The total rate is the template rate times
+ * the number of placements. Merging gaps takes constant time plus the update
+ * of the SumTree, and splitting a gap at a site inside it also searches back
+ * for the start of the gap, one 64-site word at a time
+ * @author palpant
+ *
+ */
+public class GapIndex {
+
+  private final TransitionTemplate template;
+  private final int width;
+  /**
+   * The range of coordinates that placements can cover
+   */
+  private final int lo, hi;
+  /**
+   * The empty gaps, from start (inclusive) to end (exclusive):
+   * ends[start-lo] is the end of the gap that starts at start (0 if none),
+   * starts[end-1-lo] is the start of the gap whose last site is end-1 (-1 if none),
+   * and bit start-lo of first is set when a gap starts at start
+   */
+  private final int[] ends, starts;
+  private final BitSet first;
+  private int nGaps = 0;
+  private final SumTree placements;
+
+  public GapIndex(TransitionTemplate template, Lattice lattice) {
+    if (!isHardRodAdsorption(template)) {
+      throw new IllegalArgumentException("Not a hard-rod adsorption template: "+template);
+    }
+    this.template = template;
+    width = template.getConditions().length;
+    lo = template.getFirst();
+    hi = Math.min(lattice.size(), template.getLast() + width - 1);
+    placements = new SumTree(Math.max(0, hi-lo));
+    ends = new int[Math.max(0, hi-lo)];
+    starts = new int[Math.max(0, hi-lo)];
+    Arrays.fill(starts, -1);
+    first = new BitSet(Math.max(0, hi-lo));
+
+    int start = -1;
+    for (int coord = lo; coord < hi; coord++) {
+      boolean empty = (lattice.getId(coord) == State.EMPTY.getId());
+      if (empty && start == -1) {
+        start = coord;
+      } else if (!empty && start != -1) {
+        addGap(start, coord);
+        start = -1;
+      }
+    }
+    if (start != -1) {
+      addGap(start, hi);
+    }
+  }
+
+  /**
+   * @param template a TransitionTemplate
+   * @return whether the Conditions of template are exactly that
+   *   each of the sites 0, ..., w-1 is empty
+   */
+  public static boolean isHardRodAdsorption(TransitionTemplate template) {
+    Condition[] conditions = template.getConditions();
+    if (conditions.length == 0) {
+      return false;
+    }
+    boolean[] seen = new boolean[conditions.length];
+    for (Condition c : conditions) {
+      if (c.getState() != State.EMPTY || c.getCoord() < 0
+          || c.getCoord() >= conditions.length || seen[c.getCoord()]) {
+        return false;
+      }
+      seen[c.getCoord()] = true;
+    }
+    return true;
+  }
+
+  /**
+   * Update the index when a coordinate becomes empty or occupied
+   * @param coord the coordinate that changed
+   * @param empty whether coord is now empty
+   */
+  public void update(int coord, boolean empty) {
+    if (coord < lo || coord >= hi) {
+      return;
+    }
+
+    if (empty) {
+      // Merge with the gaps on either side
+      int start = coord, end = coord+1;
+      if (coord > lo && starts[coord-1-lo] != -1) {
+        start = starts[coord-1-lo];
+        removeGap(start, coord);
+      }
+      if (coord+1 < hi && ends[coord+1-lo] != 0) {
+        end = ends[coord+1-lo];
+        removeGap(coord+1, end);
+      }
+      addGap(start, end);
+    } else {
+      // Split the gap that contained coord
+      int i = first.previousSetBit(coord-lo);
+      if (i == -1 || ends[i] <= coord) {
+        return;
+      }
+      int start = lo + i, end = ends[i];
+      removeGap(start, end);
+      if (start < coord) {
+        addGap(start, coord);
+      }
+      if (coord+1 < end) {
+        addGap(coord+1, end);
+      }
+    }
+  }
+
+  private void addGap(int start, int end) {
+    ends[start-lo] = end;
+    starts[end-1-lo] = start;
+    first.set(start-lo);
+    nGaps++;
+    placements.update(start-lo, Math.max(0, end-start-width+1));
+  }
+
+  private void removeGap(int start, int end) {
+    ends[start-lo] = 0;
+    starts[end-1-lo] = -1;
+    first.clear(start-lo);
+    nGaps--;
+    placements.update(start-lo, 0);
+  }
+
+  /**
+   * Choose a placement uniformly among all of the placements
+   * @param r a uniform random number in [0,1)
+   * @return the site of the chosen placement
+   */
+  public int select(double r) {
+    double x = r * placements.getTotal();
+    int i = placements.find(x);
+    int offset = (int) (x - placements.getPrefix(i));
+    int count = (int) placements.get(i);
+    return lo + i + Math.max(0, Math.min(offset, count-1));
+  }
+
+  /**
+   * @return the total number of placements in all gaps
+   */
+  public long getNumPlacements() {
+    return (long) placements.getTotal();
+  }
+
+  /**
+   * @return the total rate of adsorption
+   */
+  public double getRate() {
+    return template.getRate() * placements.getTotal();
+  }
+
+  public int getNumGaps() {
+    return nGaps;
+  }
+
+  public TransitionTemplate getTemplate() {
+    return template;
+  }
+
+}
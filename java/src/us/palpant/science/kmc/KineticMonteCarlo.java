@@ -1,44 +1,197 @@
 package us.palpant.science.kmc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
-import java.util.Random;
 
 import org.apache.log4j.Logger;
 
 import us.palpant.science.kmc.plugins.Plugin;
+import us.palpant.science.kmc.random.Lcg48;
+import us.palpant.science.kmc.random.RandomGenerator;
 
-public class KineticMonteCarlo {
+public class KineticMonteCarlo implements Checkpointable {
   
   private static final Logger log = Logger.getLogger(KineticMonteCarlo.class);
   public static final int PROGRESS = 100_000;
   
-  private final TransitionManager manager;
+  private final Engine engine;
   private final List<Plugin> plugins;
   private double t, tFinal;
+  private long nEvents = 0;
   
-  private Random rng = new Random();
+  private RandomGenerator rng = new Lcg48();
+  private final Event event = new Event();
+  private Checkpoint checkpoint;
+  private Metrics metrics;
+  /**
+   * The wall clock is only checked for checkpoints and metrics every so many events
+   */
+  private static final int CLOCK_CHECK = 1024;
   
-  public KineticMonteCarlo(TransitionManager manager, List<Plugin> plugins) {
-    this.manager = manager;
+  public KineticMonteCarlo(Engine engine, List<Plugin> plugins) {
+    this.engine = engine;
     this.plugins = plugins;
   }
   
-  public void run() {
-    log.info("Beginning simulation");
+  public void run() throws IOException {
+    log.info("Beginning simulation with random numbers from "+rng.getLineage());
+    if (metrics != null) {
+      metrics.start(this);
+    }
     while (t < tFinal) {
-      for (Plugin p : plugins) {
-        p.process(t);
+      // The plugins see the Lattice as it is until the next event
+      double tNext = t + engine.next(rng, tFinal-t);
+      double tEnd = Math.min(tNext, tFinal);
+      // Timing every plugin call would cost more than the plugins, so only every so many steps are timed
+      boolean timed = (metrics != null && nEvents % CLOCK_CHECK == 0);
+      process(tEnd, timed);
+      if (tNext >= tFinal) {
+        break;
       }
       
-      double r1 = rng.nextDouble();
-      Transition transition = manager.getTransition(r1);
-      manager.perform(transition);
-      
-      double r2 = rng.nextDouble();
-      double dt = -Math.log(r2) / manager.getKTotal();
-      t += dt;
+      engine.fire(rng, event);
+      event.setTime(tNext, tNext-t);
+      performed(timed);
+      t = tNext;
+      nEvents++;
+      if (isFinished()) {
+        break;
+      }
+      if (nEvents % CLOCK_CHECK == 0) {
+        if (checkpoint != null && checkpoint.isDue()) {
+          checkpoint.write(this);
+        }
+        if (metrics != null) {
+          metrics.update(this, engine);
+        }
+      }
+    }
+    if (metrics != null) {
+      metrics.publish(this, engine);
+    }
+    log.info("Simulation complete at t = "+t);
+  }
+  
+  /**
+   * Let the plugins see the Lattice until tEnd
+   * @param timed whether to time the plugins, as a sample of CLOCK_CHECK steps
+   */
+  private void process(double tEnd, boolean timed) {
+    for (int j = 0; j < plugins.size(); j++) {
+      Plugin p = plugins.get(j);
+      if (!timed) {
+        p.getSchedule().process(p, t, tEnd);
+      } else {
+        long start = System.nanoTime();
+        p.getSchedule().process(p, t, tEnd);
+        metrics.addPluginTime(j, CLOCK_CHECK * (System.nanoTime() - start));
+      }
+    }
+  }
+  
+  /**
+   * Pass the event that was just performed to the plugins and the metrics
+   * @param timed whether to time the plugins, as a sample of CLOCK_CHECK steps
+   */
+  private void performed(boolean timed) {
+    if (metrics != null) {
+      metrics.performed(event);
+    }
+    for (int j = 0; j < plugins.size(); j++) {
+      Plugin p = plugins.get(j);
+      if (!timed) {
+        p.performed(event);
+      } else {
+        long start = System.nanoTime();
+        p.performed(event);
+        metrics.addPluginTime(j, CLOCK_CHECK * (System.nanoTime() - start));
+      }
+    }
+  }
+  
+  /**
+   * @return whether any plugin has asked to stop the simulation
+   */
+  private boolean isFinished() {
+    for (Plugin p : plugins) {
+      if (p.isFinished()) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Save the time and the number of events, the name and state of the RNG, the Engine,
+   * and the Schedule and state of each Plugin
+   */
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeDouble(t);
+    out.writeLong(nEvents);
+    out.writeUTF(rng.getName());
+    rng.save(out);
+    engine.save(out);
+    out.writeInt(plugins.size());
+    for (Plugin p : plugins) {
+      p.getSchedule().save(out);
+      p.save(out);
+    }
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    t = in.readDouble();
+    nEvents = in.readLong();
+    String name = in.readUTF();
+    if (!name.equals(rng.getName())) {
+      throw new IOException("Checkpoint uses the random number generator "+name+", not "+rng.getName());
     }
-    log.info("Simulation complete");
+    rng.restore(in);
+    engine.restore(in);
+    int n = in.readInt();
+    if (n != plugins.size()) {
+      throw new IOException("Checkpoint has "+n+" plugins, not "+plugins.size());
+    }
+    for (Plugin p : plugins) {
+      p.getSchedule().restore(in);
+      p.restore(in);
+    }
+    log.info("Resuming simulation at t = "+t);
+  }
+  
+  /**
+   * @param checkpoint where to periodically save the state of the simulation
+   */
+  public void setCheckpoint(Checkpoint checkpoint) {
+    this.checkpoint = checkpoint;
+  }
+  
+  /**
+   * @param metrics the metrics to update while the simulation runs
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+  
+  public final Metrics getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * @return the current simulation time
+   */
+  public final double getTime() {
+    return t;
+  }
+
+  /**
+   * @return the number of events performed by this process
+   */
+  public final long getNumEvents() {
+    return nEvents;
   }
 
   public final double getTFinal() {
@@ -50,6 +203,14 @@ public class KineticMonteCarlo {
     this.tFinal = tFinal;
   }
   
+  /**
+   * @param rng the source of random numbers
+   */
+  public final void setRandom(RandomGenerator rng) {
+    log.info("Using random number generator "+rng.getName());
+    this.rng = rng;
+  }
+  
   public final void setSeed(long seed) {
     log.info("Setting seed for RNG = "+seed);
     rng.setSeed(seed);
@@ -1,7 +1,12 @@
 package us.palpant.science.kmc;
 
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -11,7 +16,11 @@ import us.palpant.Ark;
 import us.palpant.ArkException;
 import us.palpant.science.kmc.geometry.Lattice;
 import us.palpant.science.kmc.geometry.Lattice.BoundaryCondition;
+import us.palpant.science.kmc.plugins.Convergence;
 import us.palpant.science.kmc.plugins.Plugin;
+import us.palpant.science.kmc.random.Lcg48;
+import us.palpant.science.kmc.random.RandomGenerator;
+import us.palpant.science.kmc.selection.Selector;
 
 /**
  * Main application
@@ -24,47 +33,189 @@ public class Main {
   private static final Logger log = Logger.getLogger(Main.class);
   
   private final Ark config;
+  private Path resume;
 
   public Main(Ark config) {
     this.config = config;
     log.debug("Configuration:\n" + config);
   }
   
+  /**
+   * @param resume a checkpoint to resume the simulation from, or null
+   */
+  public void setResume(Path resume) {
+    this.resume = resume;
+  }
+  
   public Lattice initLattice() {
+    long start = System.nanoTime();
     int length = Integer.parseInt((String)config.get("lattice.length"));
     BoundaryCondition bc = BoundaryCondition.forName((String)config.get("lattice.bc"));
     Lattice lattice = new Lattice(length, bc);
     lattice.fill(State.EMPTY);
+    log.info("Initialized lattice of "+length+" sites in "+elapsed(start));
     return lattice;
   }
   
+  /**
+   * @param start a time from System.nanoTime()
+   * @return the wall-clock time since start, for logging startup phases
+   */
+  private static String elapsed(long start) {
+    return String.format("%.0f ms", (System.nanoTime() - start) / 1e6);
+  }
+  
   private Ark getParticles() {
 	  return (Ark) config.get("particles");
 	}
   
-  public Transition[] initTransitions(Lattice lattice) {
-    log.info("Initializing the transitions");
-    List<Transition> transitions = new ArrayList<>();
+  public List<TransitionTemplate> initTemplates(Lattice lattice) {
+    log.info("Initializing the transition templates");
+    List<TransitionTemplate> templates = new ArrayList<>();
     for (Entry<String,Object> keypair : getParticles()) {
       State state = State.forName(keypair.getKey());
       Ark stateConfig = (Ark) keypair.getValue();
       Particle particle = new Particle(lattice, state, stateConfig);
-      transitions.addAll(particle.getTransitions());
+      templates.addAll(particle.getTemplates());
+    }
+    
+    return templates;
+  }
+  
+  /**
+   * Initialize the engine that advances the simulation,
+   * as specified by the 'engine' key of the app config
+   */
+  public Engine initEngine(Lattice lattice) {
+    Ark app = getApp();
+    String name = "direct";
+    if (app.has("engine")) {
+      name = (String) app.get("engine");
     }
+    log.info("Using "+name+" engine");
     
-    return transitions.toArray(new Transition[transitions.size()]);
+    switch (name) {
+    case "direct":
+    case "nextreaction":
+      long start = System.nanoTime();
+      List<TransitionTemplate> templates = initTemplates(lattice);
+      GapIndex[] gaps = initGapIndexes(lattice, templates);
+      TransitionTable table = initTransitionTable(templates);
+      log.info("Initialized "+table.size()+" transitions and "+gaps.length+" gap indexes in "+elapsed(start));
+      start = System.nanoTime();
+      table.buildDependencies();
+      log.info("Initialized the dependency graph in "+elapsed(start));
+      start = System.nanoTime();
+      if (name.equals("direct")) {
+        TransitionManager manager = initManager(lattice, table, gaps);
+        log.info("Initialized the rates in "+elapsed(start)+" (kTotal = "+manager.getKTotal()+")");
+        return manager;
+      }
+      NextReactionManager manager = new NextReactionManager(lattice, table, gaps);
+      log.info("Initialized the rates in "+elapsed(start));
+      return manager;
+    case "nullevent":
+      start = System.nanoTime();
+      NullEventManager engine = new NullEventManager(lattice, initTemplates(lattice));
+      log.info("Initialized the templates in "+elapsed(start));
+      return engine;
+    default:
+      throw new ArkException("Unknown engine: "+name);
+    }
+  }
+  
+  /**
+   * If 'gap_index' is set in the app config, aggregate the hard-rod
+   * adsorptions over their placements with GapIndexes
+   * @param lattice the Lattice
+   * @param templates the TransitionTemplates, from which the aggregated
+   *   adsorptions will be removed
+   * @return the GapIndexes
+   */
+  public GapIndex[] initGapIndexes(Lattice lattice, List<TransitionTemplate> templates) {
+    Ark app = getApp();
+    List<GapIndex> gaps = new ArrayList<>();
+    if (app.has("gap_index") && Boolean.parseBoolean((String) app.get("gap_index"))) {
+      Iterator<TransitionTemplate> it = templates.iterator();
+      while (it.hasNext()) {
+        TransitionTemplate template = it.next();
+        if (GapIndex.isHardRodAdsorption(template)) {
+          log.info("Using a gap index for "+template);
+          gaps.add(new GapIndex(template, lattice));
+          it.remove();
+        }
+      }
+    }
+    
+    return gaps.toArray(new GapIndex[gaps.size()]);
+  }
+  
+  public TransitionTable initTransitionTable(List<TransitionTemplate> templates) {
+    Ark app = getApp();
+    String name = "template";
+    if (app.has("table")) {
+      name = (String) app.get("table");
+    }
+    TransitionTable table = TransitionTable.forName(name, templates);
+    log.debug("Initialized "+table);
+    return table;
+  }
+  
+  public TransitionManager initManager(Lattice lattice, TransitionTable table, GapIndex[] gaps) {
+    Ark app = getApp();
+    String name = "sumtree";
+    if (app.has("selector")) {
+      name = (String) app.get("selector");
+    }
+    log.info("Using "+name+" transition selection");
+    Selector selector = Selector.forName(name, table.size()+gaps.length);
+    return new TransitionManager(lattice, table, selector, gaps);
   }
   
   public List<Plugin> initPlugins(Lattice lattice) throws IOException {
+    return initPlugins(lattice, -1, null);
+  }
+  
+  /**
+   * @param lattice the Lattice for the plugins
+   * @param replica the index of a replica, whose outputs are named
+   *   accordingly, or -1 if this is not an ensemble
+   * @param rng the random number generator of the simulation, whose lineage
+   *   the plugins record in their outputs, or null
+   */
+  public List<Plugin> initPlugins(Lattice lattice, int replica, RandomGenerator rng) throws IOException {
     log.info("Initializing plugins");
     Ark app = getApp();
     String[] pluginNames = (String[]) app.get("plugins");
     List<Plugin> plugins = new ArrayList<>();
     for (String name : pluginNames) {
       Ark pluginCfg = (Ark) app.get(name);
+      if (replica >= 0 && pluginCfg.has("name")) {
+        Ark replicaCfg = new Ark();
+        replicaCfg.update(pluginCfg);
+        replicaCfg.set("name", Ensemble.getReplicaName((String) pluginCfg.get("name"), replica));
+        pluginCfg = replicaCfg;
+      }
+      if (resume != null) {
+        Ark resumeCfg = new Ark();
+        resumeCfg.update(pluginCfg);
+        resumeCfg.set("resume", "true");
+        pluginCfg = resumeCfg;
+      }
+      if (rng != null) {
+        Ark rngCfg = new Ark();
+        rngCfg.update(pluginCfg);
+        rngCfg.set("rng_lineage", rng.getLineage());
+        pluginCfg = rngCfg;
+      }
       Plugin p = Plugin.forConfig(lattice, pluginCfg);
       plugins.add(p);
     }
+    for (Plugin p : plugins) {
+      if (p instanceof Convergence) {
+        ((Convergence) p).setObservers(plugins);
+      }
+    }
     
     return plugins;
   }
@@ -80,31 +231,189 @@ public class Main {
     return (Ark) config.get(appName);
   }
   
-  public KineticMonteCarlo initApp(TransitionManager manager, List<Plugin> plugins) {
-    KineticMonteCarlo kmc = new KineticMonteCarlo(manager, plugins);
-    
+  /**
+   * @return a new random number generator of the type 'rng' (by default, java),
+   *   seeded with 'seed' if it is set
+   */
+  public RandomGenerator initRandom() {
     Ark app = getApp();
+    RandomGenerator rng;
+    if (app.has("rng")) {
+      rng = RandomGenerator.forName((String) app.get("rng"));
+    } else {
+      rng = new Lcg48();
+    }
     if (app.has("seed")) {
       long seed = Long.parseLong((String)app.get("seed"));
-      kmc.setSeed(seed);
+      log.info("Setting seed for RNG = "+seed);
+      rng.setSeed(seed);
     }
+    return rng;
+  }
+  
+  public KineticMonteCarlo initApp(Engine engine, List<Plugin> plugins) throws IOException {
+    return initApp(engine, plugins, initRandom(), -1);
+  }
+  
+  /**
+   * @param engine the Engine of the simulation
+   * @param plugins the plugins of the simulation
+   * @param rng the random number generator of the simulation
+   * @param replica the index of a replica, whose metrics are named
+   *   accordingly, or -1 if this is not an ensemble
+   */
+  public KineticMonteCarlo initApp(Engine engine, List<Plugin> plugins, RandomGenerator rng, 
+                                   int replica) throws IOException {
+    KineticMonteCarlo kmc = new KineticMonteCarlo(engine, plugins);
+    
+    Ark app = getApp();
+    kmc.setRandom(rng);
     if (app.has("last_time")) {
       double lastTime = Double.parseDouble((String)app.get("last_time"));
       kmc.setTFinal(lastTime);
     }
+    kmc.setMetrics(initMetrics(replica));
     
     return kmc;
   }
   
+  /**
+   * If 'metrics' is set in the app config, export the metrics of the
+   * simulation through JMX, and if 'metrics_file' is set, write them to
+   * it every 'metrics_interval' seconds (by default, 10)
+   * @param replica the index of a replica, or -1 if this is not an ensemble
+   * @return the Metrics, or null if there are none
+   */
+  public Metrics initMetrics(int replica) throws IOException {
+    Ark app = getApp();
+    boolean jmx = app.has("metrics") && Boolean.parseBoolean((String) app.get("metrics"));
+    if (!jmx && !app.has("metrics_file")) {
+      return null;
+    }
+    
+    Metrics metrics = new Metrics((String[]) app.get("plugins"));
+    if (jmx) {
+      metrics.register((replica >= 0) ? "Replica"+replica : "Simulation");
+    }
+    if (app.has("metrics_file")) {
+      String name = (String) app.get("metrics_file");
+      if (replica >= 0) {
+        name = Ensemble.getReplicaName(name, replica);
+      }
+      double interval = 10;
+      if (app.has("metrics_interval")) {
+        interval = Double.parseDouble((String) app.get("metrics_interval"));
+      }
+      metrics.setOutput(Paths.get(name), interval, resume != null);
+    }
+    return metrics;
+  }
+  
   public void run() throws IOException {
+    Ark app = getApp();
+    boolean single = !(app.has("replicas") && Integer.parseInt((String) app.get("replicas")) > 1)
+        && !(app.has("domains") && Integer.parseInt((String) app.get("domains")) > 1);
+    if (!single && (resume != null || app.has("checkpoint"))) {
+      throw new ArkException("Checkpoints are only supported for a single simulation");
+    }
+    if (app.has("replicas") && Integer.parseInt((String) app.get("replicas")) > 1) {
+      runEnsemble();
+      return;
+    }
+    if (app.has("domains") && Integer.parseInt((String) app.get("domains")) > 1) {
+      runDomains();
+      return;
+    }
+    
+    // The Lattice is restored first, so that the Engine is built from it
     Lattice lattice = initLattice();
-    Transition[] transitions = initTransitions(lattice);
-    TransitionManager manager = new TransitionManager(lattice, transitions);
-    List<Plugin> plugins = initPlugins(lattice);
-    KineticMonteCarlo kmc = initApp(manager, plugins);
+    DataInputStream checkpoint = null;
+    if (resume != null) {
+      checkpoint = Checkpoint.open(resume);
+      lattice.restore(checkpoint);
+    }
+    Engine engine = initEngine(lattice);
+    RandomGenerator rng = initRandom();
+    List<Plugin> plugins = initPlugins(lattice, -1, rng);
+    KineticMonteCarlo kmc = initApp(engine, plugins, rng, -1);
+    if (checkpoint != null) {
+      try {
+        kmc.restore(checkpoint);
+      } finally {
+        checkpoint.close();
+      }
+    }
+    if (app.has("checkpoint")) {
+      double interval = 600;
+      if (app.has("checkpoint_interval")) {
+        interval = Double.parseDouble((String) app.get("checkpoint_interval"));
+      }
+      log.info("Writing checkpoints every "+interval+" s");
+      kmc.setCheckpoint(new Checkpoint(Paths.get((String) app.get("checkpoint")), lattice, interval));
+    }
     
     kmc.run();
     
+    for (Plugin p : plugins) {
+      p.close();
+    }
+    if (kmc.getMetrics() != null) {
+      kmc.getMetrics().close();
+    }
+  }
+  
+  /**
+   * Run 'replicas' independent copies of the simulation on 'threads' threads
+   * (by default, the number of processors), and merge their results
+   */
+  public void runEnsemble() throws IOException {
+    Ark app = getApp();
+    int replicas = Integer.parseInt((String) app.get("replicas"));
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (app.has("threads")) {
+      threads = Integer.parseInt((String) app.get("threads"));
+    }
+    
+    Ensemble ensemble = new Ensemble(this, replicas, threads);
+    if (app.has("seed")) {
+      ensemble.setSeed(Long.parseLong((String) app.get("seed")));
+    }
+    ensemble.run();
+  }
+  
+  /**
+   * Run a single simulation split into 'domains' domains on 'threads' threads
+   * (by default, the number of processors), advancing in windows of 'window'.
+   * Each domain is simulated with the direct engine.
+   */
+  public void runDomains() throws IOException {
+    Ark app = getApp();
+    int domains = Integer.parseInt((String) app.get("domains"));
+    if (app.has("engine") && !app.get("engine").equals("direct")) {
+      throw new IllegalArgumentException("Domains are only supported with the direct engine, not "
+          +app.get("engine"));
+    }
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (app.has("threads")) {
+      threads = Integer.parseInt((String) app.get("threads"));
+    }
+    
+    // The templates create the States, so they are built before the plugins
+    Lattice lattice = initLattice();
+    List<TransitionTemplate> templates = initTemplates(lattice);
+    RandomGenerator rng = initRandom();
+    List<Plugin> plugins = initPlugins(lattice, -1, rng);
+    DomainDecomposition dd = new DomainDecomposition(this, lattice, templates, plugins, domains, threads);
+    dd.setRandom(rng);
+    if (app.has("last_time")) {
+      dd.setTFinal(Double.parseDouble((String) app.get("last_time")));
+    }
+    if (app.has("window")) {
+      dd.setWindow(Double.parseDouble((String) app.get("window")));
+    }
+    
+    dd.run();
+    
     for (Plugin p : plugins) {
       p.close();
     }
@@ -112,14 +421,24 @@ public class Main {
   
   public static void main(String[] args) throws IOException {
     if (args.length < 2) {
-      System.err.println("USAGE: us.palpant.science.kmc.Main [--include config.ark] [--cfg PARAM=VALUE]");
+      System.err.println("USAGE: us.palpant.science.kmc.Main [--include config.ark] [--cfg PARAM=VALUE] [--resume checkpoint]");
       System.exit(2);
     }
     
+    // Ark does not know about --resume
+    Path resume = null;
+    List<String> arkArgs = new ArrayList<>(Arrays.asList(args));
+    int i = arkArgs.indexOf("--resume");
+    if (i >= 0 && i+1 < arkArgs.size()) {
+      resume = Paths.get(arkArgs.get(i+1));
+      arkArgs.subList(i, i+2).clear();
+    }
+    
     log.info("Loading configuration");
-    Ark config = Ark.fromArgv(args);
+    Ark config = Ark.fromArgv(arkArgs.toArray(new String[arkArgs.size()]));
     log.debug("Initializing application");
     Main app = new Main(config);
+    app.setResume(resume);
     app.run();
   }
 
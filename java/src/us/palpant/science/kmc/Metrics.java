@@ -0,0 +1,342 @@
+package us.palpant.science.kmc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runtime metrics of a simulation
+ * The counters are only touched by the thread that runs the simulation,
+ * without any locking, and are published as an immutable snapshot about
+ * once per second, which is what JMX and the metrics file read. Each
+ * replica of an ensemble has its own Metrics
+ * @author palpant
+ *
+ */
+public class Metrics implements MetricsMXBean, Closeable {
+  
+  private static final Logger log = Logger.getLogger(Metrics.class);
+  
+  public static final String DOMAIN = "us.palpant.science.kmc";
+  private static final long PUBLISH_NANOS = 1_000_000_000L;
+  
+  private final String[] pluginNames;
+  private final long[] pluginNanos;
+  private final Map<String,long[]> eventCounts = new HashMap<>();
+  /**
+   * The counter of the last type of event, since most events are the same few types
+   */
+  private String lastName;
+  private long[] lastCount;
+  
+  private final long startNanos = System.nanoTime();
+  private volatile Snapshot snapshot;
+  
+  private PrintWriter writer;
+  private long intervalNanos, lastWrite;
+  private Snapshot written;
+  private ObjectName objectName;
+  
+  /**
+   * @param pluginNames the names of the plugins of the simulation, in order
+   */
+  public Metrics(String[] pluginNames) {
+    this.pluginNames = pluginNames;
+    pluginNanos = new long[pluginNames.length];
+    snapshot = new Snapshot();
+  }
+  
+  /**
+   * Export the metrics through the platform MBeanServer
+   * @param name the name of the MBean, e.g. Simulation or Replica3
+   */
+  public void register(String name) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      objectName = new ObjectName(DOMAIN+":type=Metrics,name="+name);
+      server.registerMBean(this, objectName);
+      log.info("Registered metrics as "+objectName);
+    } catch (JMException e) {
+      log.warn("Could not register metrics: "+e.getMessage());
+      objectName = null;
+    }
+  }
+  
+  /**
+   * Also write the metrics to a file of JSON lines
+   * @param path the file to write to
+   * @param interval the wall-clock time between lines, in seconds
+   * @param append whether to append to the file (e.g. when resuming)
+   */
+  public void setOutput(Path path, double interval, boolean append) throws IOException {
+    log.info("Writing metrics to "+path+" every "+interval+" s");
+    if (append) {
+      writer = new PrintWriter(Files.newBufferedWriter(path, Charset.defaultCharset(),
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    } else {
+      writer = new PrintWriter(Files.newBufferedWriter(path, Charset.defaultCharset()));
+    }
+    intervalNanos = (long) (interval * 1e9);
+    lastWrite = startNanos;
+  }
+  
+  /**
+   * Measure the rates from the current state of the simulation,
+   * which is not the beginning if it was resumed from a checkpoint
+   */
+  void start(KineticMonteCarlo kmc) {
+    snapshot = new Snapshot(kmc);
+  }
+  
+  /**
+   * Count an event that has been performed
+   */
+  void performed(Event event) {
+    String name = event.getName();
+    if (name != lastName) {
+      lastCount = eventCounts.get(name);
+      if (lastCount == null) {
+        lastCount = new long[1];
+        eventCounts.put(name, lastCount);
+      }
+      lastName = name;
+    }
+    lastCount[0]++;
+  }
+  
+  /**
+   * Add to the time spent in a plugin
+   * @param j the index of the plugin
+   * @param nanos the wall-clock time, in nanoseconds, scaled up if it was sampled
+   */
+  void addPluginTime(int j, long nanos) {
+    pluginNanos[j] += nanos;
+  }
+  
+  /**
+   * Publish a new snapshot if it is due, and write it if that is due
+   */
+  void update(KineticMonteCarlo kmc, Engine engine) throws IOException {
+    long now = System.nanoTime();
+    if (now - snapshot.nanos >= PUBLISH_NANOS) {
+      publish(kmc, engine, now);
+    }
+  }
+  
+  /**
+   * Publish a new snapshot now, and write it if that is due
+   */
+  void publish(KineticMonteCarlo kmc, Engine engine) throws IOException {
+    publish(kmc, engine, System.nanoTime());
+  }
+  
+  private void publish(KineticMonteCarlo kmc, Engine engine, long now) throws IOException {
+    snapshot = new Snapshot(this, kmc, engine, now, snapshot);
+    if (writer != null && now - lastWrite >= intervalNanos) {
+      write(snapshot);
+      lastWrite = now;
+    }
+  }
+  
+  private void write(Snapshot s) {
+    StringBuilder line = new StringBuilder("{");
+    line.append("\"wall_time\":").append(number(getWallTime(s)));
+    line.append(",\"time\":").append(number(s.time));
+    line.append(",\"last_time\":").append(number(s.lastTime));
+    line.append(",\"events\":").append(s.nEvents);
+    line.append(",\"steps_per_second\":").append(number(s.stepsPerSecond));
+    line.append(",\"ktotal\":").append(number(s.kTotal));
+    line.append(",\"mean_reevaluated\":").append(number(s.meanReevaluated));
+    line.append(",\"heap_used\":").append(getHeapUsed());
+    line.append(",\"remaining_seconds\":").append(number(s.remainingSeconds));
+    line.append(",\"events_by_type\":{");
+    String sep = "";
+    for (Map.Entry<String,Long> entry : s.eventsByType.entrySet()) {
+      line.append(sep).append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+      sep = ",";
+    }
+    line.append("},\"plugin_seconds\":{");
+    sep = "";
+    for (Map.Entry<String,Double> entry : s.pluginSeconds.entrySet()) {
+      line.append(sep).append('"').append(entry.getKey()).append("\":").append(number(entry.getValue()));
+      sep = ",";
+    }
+    line.append("}}");
+    writer.println(line);
+    writer.flush();
+    written = s;
+  }
+  
+  /**
+   * @return x as a JSON number, or null if it is not finite
+   */
+  private static String number(double x) {
+    if (Double.isNaN(x) || Double.isInfinite(x)) {
+      return "null";
+    }
+    return String.valueOf(x);
+  }
+  
+  /**
+   * Stop exporting the metrics, and close the metrics file
+   */
+  @Override
+  public void close() throws IOException {
+    if (writer != null) {
+      if (written != snapshot) {
+        write(snapshot);
+      }
+      writer.close();
+      writer = null;
+    }
+    if (objectName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      } catch (JMException e) {
+        log.warn("Could not unregister metrics: "+e.getMessage());
+      }
+      objectName = null;
+    }
+  }
+  
+  private double getWallTime(Snapshot s) {
+    return (s.nanos - startNanos) / 1e9;
+  }
+  
+  @Override
+  public double getWallTime() {
+    return getWallTime(snapshot);
+  }
+  
+  @Override
+  public double getTime() {
+    return snapshot.time;
+  }
+  
+  @Override
+  public double getLastTime() {
+    return snapshot.lastTime;
+  }
+  
+  @Override
+  public long getNumEvents() {
+    return snapshot.nEvents;
+  }
+  
+  @Override
+  public double getStepsPerSecond() {
+    return snapshot.stepsPerSecond;
+  }
+  
+  @Override
+  public double getKTotal() {
+    return snapshot.kTotal;
+  }
+  
+  @Override
+  public Map<String,Long> getEventsByType() {
+    return snapshot.eventsByType;
+  }
+  
+  @Override
+  public double getMeanReevaluated() {
+    return snapshot.meanReevaluated;
+  }
+  
+  @Override
+  public Map<String,Double> getPluginSeconds() {
+    return snapshot.pluginSeconds;
+  }
+  
+  @Override
+  public long getHeapUsed() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+  
+  @Override
+  public double getRemainingSeconds() {
+    return snapshot.remainingSeconds;
+  }
+  
+  /**
+   * The metrics at one point in time
+   */
+  private static final class Snapshot {
+    
+    private final long nanos;
+    private final double time, lastTime, kTotal;
+    private final long nEvents;
+    private final double stepsPerSecond, meanReevaluated, remainingSeconds;
+    private final Map<String,Long> eventsByType;
+    private final Map<String,Double> pluginSeconds;
+    
+    private Snapshot() {
+      nanos = System.nanoTime();
+      time = lastTime = kTotal = 0;
+      nEvents = 0;
+      stepsPerSecond = meanReevaluated = 0;
+      remainingSeconds = Double.NaN;
+      eventsByType = Collections.emptyMap();
+      pluginSeconds = Collections.emptyMap();
+    }
+    
+    private Snapshot(KineticMonteCarlo kmc) {
+      nanos = System.nanoTime();
+      time = kmc.getTime();
+      lastTime = kmc.getTFinal();
+      kTotal = 0;
+      nEvents = kmc.getNumEvents();
+      stepsPerSecond = meanReevaluated = 0;
+      remainingSeconds = Double.NaN;
+      eventsByType = Collections.emptyMap();
+      pluginSeconds = Collections.emptyMap();
+    }
+    
+    private Snapshot(Metrics metrics, KineticMonteCarlo kmc, Engine engine, long nanos, Snapshot previous) {
+      this.nanos = nanos;
+      time = kmc.getTime();
+      lastTime = kmc.getTFinal();
+      kTotal = engine.getKTotal();
+      nEvents = kmc.getNumEvents();
+      double seconds = (nanos - previous.nanos) / 1e9;
+      stepsPerSecond = (nEvents - previous.nEvents) / seconds;
+      // Extrapolate the rate of simulation time since the last snapshot
+      remainingSeconds = (lastTime - time) * seconds / (time - previous.time);
+      if (engine instanceof TransitionManager) {
+        TransitionManager manager = (TransitionManager) engine;
+        meanReevaluated = (double) manager.getNumReevaluated() / manager.getNumChanges();
+      } else {
+        meanReevaluated = Double.NaN;
+      }
+      
+      Map<String,Long> events = new LinkedHashMap<>();
+      for (Map.Entry<String,long[]> entry : metrics.eventCounts.entrySet()) {
+        events.put(entry.getKey(), entry.getValue()[0]);
+      }
+      eventsByType = Collections.unmodifiableMap(events);
+      Map<String,Double> plugins = new LinkedHashMap<>();
+      for (int j = 0; j < metrics.pluginNames.length; j++) {
+        plugins.put(metrics.pluginNames[j], metrics.pluginNanos[j] / 1e9);
+      }
+      pluginSeconds = Collections.unmodifiableMap(plugins);
+    }
+    
+  }
+
+}
@@ -0,0 +1,69 @@
+package us.palpant.science.kmc;
+
+import java.util.Map;
+
+/**
+ * The runtime metrics of a simulation, as exported through JMX
+ * @author palpant
+ *
+ */
+public interface MetricsMXBean {
+  
+  /**
+   * @return the wall-clock time since the simulation started, in seconds
+   */
+  public double getWallTime();
+  
+  /**
+   * @return the current simulation time
+   */
+  public double getTime();
+  
+  /**
+   * @return the simulation time that the simulation will stop at
+   */
+  public double getLastTime();
+  
+  /**
+   * @return the number of events performed
+   */
+  public long getNumEvents();
+  
+  /**
+   * @return the number of events per wall-clock second, since the previous update
+   */
+  public double getStepsPerSecond();
+  
+  /**
+   * @return the total rate of all events
+   */
+  public double getKTotal();
+  
+  /**
+   * @return the number of events of each type (adsorption, desorption, ...)
+   */
+  public Map<String,Long> getEventsByType();
+  
+  /**
+   * @return the mean number of dependent Transitions that are 
+   *   re-evaluated each time the Lattice is changed
+   */
+  public double getMeanReevaluated();
+  
+  /**
+   * @return the wall-clock time spent in each plugin, in seconds,
+   *   estimated from a sample of the steps
+   */
+  public Map<String,Double> getPluginSeconds();
+  
+  /**
+   * @return the number of bytes of heap in use
+   */
+  public long getHeapUsed();
+  
+  /**
+   * @return the projected wall-clock time until the last time, in seconds
+   */
+  public double getRemainingSeconds();
+
+}
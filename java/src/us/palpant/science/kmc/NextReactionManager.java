@@ -0,0 +1,176 @@
+package us.palpant.science.kmc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.random.RandomGenerator;
+import us.palpant.science.kmc.selection.IndexedHeap;
+
+/**
+ * The next reaction method of Gibson and Bruck (2000)
+ * Every enabled Transition has a putative absolute firing time in an
+ * indexed heap, and the next event is simply the earliest one.
+ * When the rate of a Transition changes, its firing time is rescaled
+ * rather than redrawn, and a disabled Transition keeps its remaining
+ * (unit-rate) waiting time until it is enabled again, so each step
+ * only needs one new random number, for the Transition that fired
+ * (plus one to choose the placement when a GapIndex fires)
+ * @author palpant
+ *
+ */
+public class NextReactionManager extends TransitionManager {
+
+  private static final Logger log = Logger.getLogger(NextReactionManager.class);
+
+  private final IndexedHeap times;
+  /**
+   * The rate of each Transition when its firing time was last scheduled
+   */
+  private final double[] rates;
+  /**
+   * The remaining unit-rate waiting time of each disabled Transition
+   */
+  private final double[] residuals;
+  private double time = 0;
+  private double kTotal = 0;
+  private int firing = -1;
+  private boolean initialized = false;
+
+  public NextReactionManager(Lattice lattice, TransitionTable table) {
+    this(lattice, table, new GapIndex[0]);
+  }
+
+  public NextReactionManager(Lattice lattice, TransitionTable table, GapIndex[] gaps) {
+    super(lattice, table, null, gaps);
+    times = new IndexedHeap(size());
+    rates = new double[size()];
+    residuals = new double[size()];
+  }
+
+  @Override
+  public double next(RandomGenerator rng, double dtMax) {
+    if (!initialized) {
+      initialize(rng);
+    }
+    // Nothing can happen once the Lattice reaches an absorbing state
+    if (times.isEmpty()) {
+      return Double.POSITIVE_INFINITY;
+    }
+
+    return times.getKey(select(0)) - time;
+  }
+
+  @Override
+  public void fire(RandomGenerator rng, Event event) {
+    int i = select(0);
+    time = times.getKey(i);
+    firing = i;
+    fire(i, rng, event);
+    firing = -1;
+
+    // The Transition that fired always needs a new waiting time
+    double e = rng.nextExponential();
+    kTotal += getRate(i) - rates[i];
+    rates[i] = getRate(i);
+    if (rates[i] > 0) {
+      times.update(i, time + e/rates[i]);
+    } else {
+      times.remove(i);
+      residuals[i] = e;
+    }
+  }
+
+  /**
+   * Draw the initial waiting time of every Transition
+   */
+  private void initialize(RandomGenerator rng) {
+    log.debug("Scheduling initial firing times");
+    for (int i = 0; i < size(); i++) {
+      double e = rng.nextExponential();
+      rates[i] = getRate(i);
+      kTotal += rates[i];
+      if (rates[i] > 0) {
+        times.update(i, time + e/rates[i]);
+      } else {
+        residuals[i] = e;
+      }
+    }
+    initialized = true;
+  }
+
+  @Override
+  protected void rateChanged(int i) {
+    if (!initialized || i == firing) {
+      return;
+    }
+
+    double oldRate = rates[i];
+    double newRate = getRate(i);
+    kTotal += newRate - oldRate;
+    rates[i] = newRate;
+    if (oldRate > 0 && newRate > 0) {
+      times.update(i, time + (oldRate/newRate)*(times.getKey(i)-time));
+    } else if (oldRate > 0) {
+      residuals[i] = oldRate * (times.getKey(i)-time);
+      times.remove(i);
+    } else if (newRate > 0) {
+      times.update(i, time + residuals[i]/newRate);
+    }
+  }
+
+  /**
+   * The next reaction method is deterministic once the firing times
+   * have been drawn, so r is ignored
+   * @return the index of the Transition with the earliest firing time
+   */
+  @Override
+  protected int select(double r) {
+    if (times.isEmpty()) {
+      throw new IllegalStateException("No transitions are enabled");
+    }
+    return times.peek();
+  }
+
+  @Override
+  public double getKTotal() {
+    return kTotal;
+  }
+
+  @Override
+  public void save(DataOutput out) throws IOException {
+    super.save(out);
+    out.writeBoolean(initialized);
+    out.writeDouble(time);
+    out.writeDouble(kTotal);
+    for (int i = 0; i < size(); i++) {
+      out.writeDouble(rates[i]);
+      out.writeDouble(residuals[i]);
+    }
+    times.save(out);
+  }
+
+  @Override
+  public void restore(DataInput in) throws IOException {
+    super.restore(in);
+    initialized = in.readBoolean();
+    time = in.readDouble();
+    kTotal = in.readDouble();
+    for (int i = 0; i < size(); i++) {
+      rates[i] = in.readDouble();
+      residuals[i] = in.readDouble();
+    }
+    times.restore(in);
+  }
+
+  /**
+   * @return the current (absolute) time of the scheduler
+   */
+  public double getTime() {
+    return time;
+  }
+
+}
@@ -0,0 +1,174 @@
+package us.palpant.science.kmc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.random.RandomGenerator;
+
+/**
+ * Null-event (rejection) kinetic Monte Carlo
+ * Rather than keeping a database of enabled Transitions, each trial picks
+ * a TransitionTemplate and a site with probability proportional to the
+ * template's rate, and performs it only if its Conditions hold.
+ * Time advances at the constant total rate of all templates at all sites,
+ * whether or not the trial succeeds, so the dynamics are the same as
+ * for the TransitionManager but memory is only O(lattice)
+ * @author palpant
+ *
+ */
+public class NullEventManager implements Engine {
+
+  private static final Logger log = Logger.getLogger(NullEventManager.class);
+
+  private final Lattice lattice;
+  private final TransitionTemplate[] templates;
+  private final double[] accumulatedRates;
+  private long nEvents = 0, nNullEvents = 0;
+  /**
+   * The total number of (template, site) pairs
+   */
+  private final long nSites;
+  /**
+   * The event selected by the last call to next
+   */
+  private TransitionTemplate pending;
+  private int pendingSite;
+
+  public NullEventManager(Lattice lattice, List<TransitionTemplate> templates) {
+    this.lattice = lattice;
+    log.debug("Initializing null-event manager with "+templates.size()+" transition templates");
+    
+    // Templates that can never fire would only waste trials
+    List<TransitionTemplate> active = new ArrayList<>();
+    for (TransitionTemplate template : templates) {
+      if (template.getRate() > 0 && template.size() > 0) {
+        active.add(template);
+      }
+    }
+    if (active.isEmpty()) {
+      throw new IllegalArgumentException("Cannot run null-event KMC without any transitions");
+    }
+    this.templates = active.toArray(new TransitionTemplate[active.size()]);
+
+    accumulatedRates = new double[this.templates.length];
+    double kTotal = 0;
+    long n = 0;
+    for (int i = 0; i < this.templates.length; i++) {
+      kTotal += this.templates[i].getRate() * this.templates[i].size();
+      accumulatedRates[i] = kTotal;
+      n += this.templates[i].size();
+    }
+    nSites = n;
+  }
+
+  @Override
+  public double next(RandomGenerator rng, double dtMax) {
+    double dt = 0;
+    long nTrials = 0, jamCheck = nSites;
+    while (true) {
+      dt += rng.nextExponential() / getKTotal();
+      if (dt >= dtMax) {
+        return Double.POSITIVE_INFINITY;
+      }
+
+      // Choose the template, and then reuse the remainder of r to choose the site
+      double x = rng.nextDouble() * getKTotal();
+      int selected = 0;
+      while (selected < accumulatedRates.length-1 && x >= accumulatedRates[selected]) {
+        selected++;
+      }
+      TransitionTemplate template = templates[selected];
+      if (selected > 0) {
+        x -= accumulatedRates[selected-1];
+      }
+      int site = template.getFirst() + Math.min((int) (x / template.getRate()), template.size()-1);
+
+      if (template.isEnabled(lattice, site)) {
+        pending = template;
+        pendingSite = site;
+        return dt;
+      }
+      nNullEvents++;
+      
+      // Once the trials have cost as much as a sweep, check that the Lattice is not jammed
+      if (++nTrials == jamCheck) {
+        if (!isAnyEnabled()) {
+          return Double.POSITIVE_INFINITY;
+        }
+        jamCheck *= 2;
+      }
+    }
+  }
+  
+  /**
+   * @return whether any template is enabled at any site
+   */
+  private boolean isAnyEnabled() {
+    for (TransitionTemplate template : templates) {
+      for (int site = template.getFirst(); site < template.getLast(); site++) {
+        if (template.isEnabled(lattice, site)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void fire(RandomGenerator rng, Event event) {
+    event.clear(pending.getName());
+    for (Action a : pending.getActions()) {
+      event.set(lattice, pendingSite+a.getCoord(), a.getState().getId());
+    }
+    pending = null;
+    if (++nEvents % KineticMonteCarlo.PROGRESS == 0 && log.isDebugEnabled()) {
+      log.debug("Null-event acceptance ratio = "+getAcceptanceRatio());
+    }
+  }
+
+  /**
+   * @return the fraction of trials that performed an event
+   */
+  public double getAcceptanceRatio() {
+    return (double) nEvents / (nEvents + nNullEvents);
+  }
+
+  /**
+   * The null-event method has no state besides the Lattice
+   * except its counts of events
+   */
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeLong(nEvents);
+    out.writeLong(nNullEvents);
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    nEvents = in.readLong();
+    nNullEvents = in.readLong();
+  }
+  
+  public long getNumEvents() {
+    return nEvents;
+  }
+
+  public long getNumNullEvents() {
+    return nNullEvents;
+  }
+
+  /**
+   * @return the upper bound on the total rate
+   */
+  @Override
+  public double getKTotal() {
+    return accumulatedRates[accumulatedRates.length-1];
+  }
+
+}
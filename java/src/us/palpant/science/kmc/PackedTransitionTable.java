@@ -0,0 +1,323 @@
+package us.palpant.science.kmc;
+
+import java.util.Arrays;
+import java.util.List;
+
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * A TransitionTable with every Transition materialized
+ * The Conditions and Actions of all Transitions are stored in flat
+ * primitive arrays, with per-Transition offsets into them
+ * @author palpant
+ *
+ */
+public class PackedTransitionTable extends TransitionTable {
+
+  private final int[] conditionOffsets;
+  private final int[] conditionCoords;
+  private final byte[] conditionStates;
+  private final int[] actionOffsets;
+  private final int[] actionCoords;
+  private final byte[] actionStates;
+  private final short[] nameIds;
+  /**
+   * The dependency graph in compressed sparse row format: the Conditions
+   * on coord are dependencies[dependencyOffsets[coord]] up to
+   * dependencies[dependencyOffsets[coord+1]], with their States
+   * in the parallel array dependencyStates
+   */
+  private int[] dependencyOffsets;
+  private int[] dependencies;
+  private byte[] dependencyStates;
+  private int maxConditionsOn = 0;
+
+  /**
+   * Pack the Transitions made from a list of TransitionTemplates,
+   * without creating any Transition objects
+   * @param templates the TransitionTemplates
+   */
+  public PackedTransitionTable(List<TransitionTemplate> templates) {
+    this(countTransitions(templates), countConditions(templates), countActions(templates));
+
+    int i = 0, c = 0, a = 0;
+    for (TransitionTemplate template : templates) {
+      fill(template, internName(template.getName()), i, c, a);
+      i += template.size();
+      c += template.size() * template.getConditions().length;
+      a += template.size() * template.getActions().length;
+    }
+    conditionOffsets[size()] = c;
+    actionOffsets[size()] = a;
+  }
+  
+  /**
+   * Pack the Transitions of a template, in parallel over its sites,
+   * since every template has the same number of Conditions and Actions at each site
+   * @param template the TransitionTemplate
+   * @param nameId the id of the name of template
+   * @param i0 the index of the first Transition of template
+   * @param c0 the index of its first Condition
+   * @param a0 the index of its first Action
+   */
+  private void fill(final TransitionTemplate template, final short nameId, 
+      final int i0, final int c0, final int a0) {
+    final Condition[] conditions = template.getConditions();
+    final Action[] actions = template.getActions();
+    new ParallelLoop() {
+      @Override
+      protected void run(int lo, int hi) {
+        for (int s = lo; s < hi; s++) {
+          int i = i0 + s, c = c0 + s*conditions.length, a = a0 + s*actions.length;
+          int site = template.getFirst() + s;
+          conditionOffsets[i] = c;
+          for (Condition condition : conditions) {
+            conditionCoords[c] = site + condition.getCoord();
+            conditionStates[c++] = (byte) condition.getState().getId();
+          }
+          actionOffsets[i] = a;
+          for (Action action : actions) {
+            actionCoords[a] = site + action.getCoord();
+            actionStates[a++] = (byte) action.getState().getId();
+          }
+          setRate(i, template.getRate());
+          nameIds[i] = nameId;
+        }
+      }
+    }.forRange(template.size());
+  }
+
+  /**
+   * Pack an array of Transitions
+   * The index of each Transition is set to its index in the table
+   * @param transitions the Transitions
+   */
+  public PackedTransitionTable(Transition[] transitions) {
+    this(transitions.length, countConditions(transitions), countActions(transitions));
+
+    int c = 0, a = 0;
+    for (int i = 0; i < size(); i++) {
+      Transition t = transitions[i];
+      t.setIndex(i);
+      conditionOffsets[i] = c;
+      for (Condition condition : t.getConditions()) {
+        conditionCoords[c] = condition.getCoord();
+        conditionStates[c++] = (byte) condition.getState().getId();
+      }
+      actionOffsets[i] = a;
+      for (Action action : t.getActions()) {
+        actionCoords[a] = action.getCoord();
+        actionStates[a++] = (byte) action.getState().getId();
+      }
+      // Transition.getRate() is 0 while disabled
+      boolean enabled = t.isEnabled();
+      t.setEnabled(true);
+      setRate(i, t.getRate());
+      t.setEnabled(enabled);
+      setEnabled(i, enabled);
+      nameIds[i] = internName(t.getName());
+    }
+    conditionOffsets[size()] = c;
+    actionOffsets[size()] = a;
+  }
+
+  private PackedTransitionTable(int size, int nConditions, int nActions) {
+    super(size);
+    conditionOffsets = new int[size+1];
+    conditionCoords = new int[nConditions];
+    conditionStates = new byte[nConditions];
+    actionOffsets = new int[size+1];
+    actionCoords = new int[nActions];
+    actionStates = new byte[nActions];
+    nameIds = new short[size];
+  }
+
+  private static int countTransitions(List<TransitionTemplate> templates) {
+    long n = 0;
+    for (TransitionTemplate template : templates) {
+      n += template.size();
+    }
+    return checkSize(n, "transitions");
+  }
+
+  private static int countConditions(List<TransitionTemplate> templates) {
+    long n = 0;
+    for (TransitionTemplate template : templates) {
+      n += (long) template.size() * template.getConditions().length;
+    }
+    return checkSize(n, "conditions");
+  }
+
+  private static int countActions(List<TransitionTemplate> templates) {
+    long n = 0;
+    for (TransitionTemplate template : templates) {
+      n += (long) template.size() * template.getActions().length;
+    }
+    return checkSize(n, "actions");
+  }
+
+  private static int countConditions(Transition[] transitions) {
+    long n = 0;
+    for (Transition t : transitions) {
+      n += t.getConditions().length;
+    }
+    return checkSize(n, "conditions");
+  }
+
+  private static int countActions(Transition[] transitions) {
+    long n = 0;
+    for (Transition t : transitions) {
+      n += t.getActions().length;
+    }
+    return checkSize(n, "actions");
+  }
+
+  /**
+   * @param n the number of elements of a packed array
+   * @param what what the elements are, for the error message
+   * @return n, if it fits in an array
+   */
+  private static int checkSize(long n, String what) {
+    if (n > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Cannot pack "+n+" "+what+" into one table");
+    }
+    return (int) n;
+  }
+
+  @Override
+  public boolean isSatisfied(int i, Lattice lattice) {
+    for (int k = conditionOffsets[i]; k < conditionOffsets[i+1]; k++) {
+      if (lattice.getId(conditionCoords[k]) != (conditionStates[k] & 0xFF)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void perform(int i, Lattice lattice) {
+    for (int k = actionOffsets[i]; k < actionOffsets[i+1]; k++) {
+      lattice.setId(actionCoords[k], actionStates[k] & 0xFF);
+    }
+  }
+
+  @Override
+  public int getNumConditions(int i) {
+    return conditionOffsets[i+1] - conditionOffsets[i];
+  }
+
+  @Override
+  public int getConditionCoord(int i, int j) {
+    return conditionCoords[conditionOffsets[i]+j];
+  }
+
+  @Override
+  public int getConditionState(int i, int j) {
+    return conditionStates[conditionOffsets[i]+j] & 0xFF;
+  }
+
+  @Override
+  public int getNumActions(int i) {
+    return actionOffsets[i+1] - actionOffsets[i];
+  }
+
+  @Override
+  public int getActionCoord(int i, int j) {
+    return actionCoords[actionOffsets[i]+j];
+  }
+
+  @Override
+  public int getActionState(int i, int j) {
+    return actionStates[actionOffsets[i]+j] & 0xFF;
+  }
+
+  @Override
+  public int getActions(int i, int[] coords, int[] states) {
+    int start = actionOffsets[i];
+    int n = actionOffsets[i+1] - start;
+    System.arraycopy(actionCoords, start, coords, 0, n);
+    for (int j = 0; j < n; j++) {
+      states[j] = actionStates[start+j] & 0xFF;
+    }
+    return n;
+  }
+
+  @Override
+  public int getMaxActions() {
+    int max = 0;
+    for (int i = 0; i < size(); i++) {
+      max = Math.max(max, getNumActions(i));
+    }
+    return max;
+  }
+
+  @Override
+  public int getConditionsOn(int coord, int[] transitions, int[] states) {
+    buildDependencies();
+    if (coord < 0 || coord >= dependencyOffsets.length-1) {
+      return 0;
+    }
+    int start = dependencyOffsets[coord];
+    int n = dependencyOffsets[coord+1] - start;
+    System.arraycopy(dependencies, start, transitions, 0, n);
+    for (int k = 0; k < n; k++) {
+      states[k] = dependencyStates[start+k] & 0xFF;
+    }
+    return n;
+  }
+
+  @Override
+  public int getMaxConditionsOn() {
+    buildDependencies();
+    return maxConditionsOn;
+  }
+
+  /**
+   * Index the Conditions by their coordinates
+   */
+  @Override
+  public void buildDependencies() {
+    if (dependencies != null) {
+      return;
+    }
+    int length = 0;
+    for (int coord : conditionCoords) {
+      length = Math.max(length, coord+1);
+    }
+
+    // Count the Conditions at each coordinate
+    int[] offsets = new int[length+1];
+    for (int coord : conditionCoords) {
+      offsets[coord+1]++;
+    }
+    for (int coord = 0; coord < length; coord++) {
+      maxConditionsOn = Math.max(maxConditionsOn, offsets[coord+1]);
+      offsets[coord+1] += offsets[coord];
+    }
+
+    // Fill in the rows
+    int[] next = Arrays.copyOf(offsets, length);
+    dependencies = new int[conditionCoords.length];
+    dependencyStates = new byte[conditionCoords.length];
+    for (int i = 0; i < size(); i++) {
+      for (int k = conditionOffsets[i]; k < conditionOffsets[i+1]; k++) {
+        int pos = next[conditionCoords[k]]++;
+        dependencies[pos] = i;
+        dependencyStates[pos] = conditionStates[k];
+      }
+    }
+    dependencyOffsets = offsets;
+  }
+
+  @Override
+  public int getNameId(int i) {
+    return nameIds[i];
+  }
+
+  @Override
+  public String toString() {
+    return "PackedTransitionTable with " + size() + " transitions, " + conditionCoords.length
+        + " conditions and " + actionCoords.length + " actions " + getNames();
+  }
+
+}
@@ -0,0 +1,62 @@
+package us.palpant.science.kmc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A loop over [0, n) whose iterations are independent, so that it can be
+ * run in contiguous chunks on all processors. It is used to build large
+ * models, where each iteration writes to its own entries of arrays
+ * @author palpant
+ *
+ */
+public abstract class ParallelLoop {
+  
+  /**
+   * The smallest number of iterations that is split
+   */
+  public static final int GRAIN = 1 << 14;
+  
+  private static final ForkJoinPool pool = new ForkJoinPool();
+  
+  /**
+   * Run the iterations from lo (inclusive) to hi (exclusive)
+   */
+  protected abstract void run(int lo, int hi);
+  
+  /**
+   * Run all iterations from 0 to n (exclusive), and wait for them to finish
+   * @param n the number of iterations
+   */
+  public final void forRange(int n) {
+    if (n <= GRAIN || pool.getParallelism() == 1) {
+      run(0, n);
+    } else {
+      pool.invoke(new Chunk(0, n));
+    }
+  }
+  
+  private final class Chunk extends RecursiveAction {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final int lo, hi;
+    
+    private Chunk(int lo, int hi) {
+      this.lo = lo;
+      this.hi = hi;
+    }
+    
+    @Override
+    protected void compute() {
+      if (hi - lo <= GRAIN) {
+        run(lo, hi);
+      } else {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new Chunk(lo, mid), new Chunk(mid, hi));
+      }
+    }
+    
+  }
+
+}
@@ -1,6 +1,7 @@
 package us.palpant.science.kmc;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -24,7 +25,7 @@ public class Particle {
   private final State state;
   private final Type type;
   private final int size;
-  private List<Transition> transitions = new ArrayList<>();
+  private List<TransitionTemplate> templates = new ArrayList<>();
 
   public Particle(Lattice lattice, State state, Type type, int size) {
     this.lattice = lattice;
@@ -40,7 +41,7 @@ public class Particle {
     type = Type.forName((String) config.get("type"));
     if (type == Type.DYNAMIC_WIDTH) {
       double rate = Double.parseDouble((String)config.get("rate"));
-      transitions.addAll(getSizeTransitions(rate));
+      getSizeTransitions(rate);
     }
     
     String[] tNames = (String[]) config.get("transitions");
@@ -50,28 +51,42 @@ public class Particle {
       double rate = Double.parseDouble((String)tConfig.get("rate"));
       switch (tType) {
       case "adsorption":
-        transitions.addAll(getAdsorptionTransitions(rate));
+        templates.add(getAdsorptionTemplate(rate));
         break;
       case "desorption":
-        transitions.addAll(getDesorptionTransitions(rate));
+        templates.add(getDesorptionTemplate(rate));
         break;
       case "diffusion":
-        transitions.addAll(getDiffusionTransitions(rate));
+        templates.addAll(getDiffusionTemplates(rate));
         break;
       case "hop":
         int step = Integer.parseInt((String)tConfig.get("step"));
-        transitions.addAll(getHopTransitions(rate, step));
+        templates.addAll(getHopTemplates(rate, step));
         break;
       default:
         throw new ArkException("Unknown particle transition type: "+tType);
       }
     }
     
-    log.debug("Initialized particle "+state+" with "+transitions.size()+" transitions");
+    log.debug("Initialized particle "+state+" with "+templates.size()+" transition templates");
   }
 
+  /**
+   * @return the translationally invariant Transitions of this particle
+   */
+  public List<TransitionTemplate> getTemplates() {
+    return Collections.unmodifiableList(templates);
+  }
+
+  /**
+   * @return the Transitions of this particle at every site of the Lattice
+   */
   public List<Transition> getTransitions() {
-    return Collections.unmodifiableList(transitions);
+    List<Transition> transitions = new ArrayList<>();
+    for (TransitionTemplate template : templates) {
+      transitions.addAll(Arrays.asList(template.getTransitions()));
+    }
+    return transitions;
   }
   
   /**
@@ -104,72 +119,80 @@ public class Particle {
     throw new RuntimeException("Dynamic width objects are not yet implemented");
   }
   
+  public TransitionTemplate getAdsorptionTemplate(double rate) {
+    Condition[] conditions = new Condition[size];
+    for (int j = 0; j < size; j++) {
+      conditions[j] = new Condition(j, State.EMPTY);
+    }
+    Action[] actions = new Action[size];
+    actions[0] = new Action(0, state);
+    for (int j = 1; j < size; j++) {
+      actions[j] = new Action(j, State.STERIC);
+    }
+    
+    return new TransitionTemplate("adsorption", conditions, actions, rate, 0, lattice.size()-size);
+  }
+  
   public List<Transition> getAdsorptionTransitions(double rate) {
-    List<Transition> transitions = new ArrayList<>();
-
-    for (int i = 0; i < lattice.size()-size; i++) {
-      List<Condition> conditionsList = new ArrayList<>();
-      for (int j = 0; j < size; j++) {
-        conditionsList.add(new Condition(i+j, State.EMPTY));
-      }
-      Condition[] conditions = conditionsList.toArray(new Condition[conditionsList.size()]);
-      Action[] actions = new Action[size];
-      actions[0] = new Action(i, state);
-      for (int j = 1; j < size; j++) {
-          actions[j] = new Action(i+j, State.STERIC);
-      }
-      transitions.add(new Transition("adsorption", conditions, actions, rate));
+    return Arrays.asList(getAdsorptionTemplate(rate).getTransitions());
+  }
+  
+  public TransitionTemplate getDesorptionTemplate(double rate) {
+    Condition[] conditions = new Condition[1];
+    conditions[0] = new Condition(0, state);
+    Action[] actions = new Action[size];
+    for (int j = 0; j < size; j++) {
+      actions[j] = new Action(j, State.EMPTY);
     }
     
-    return transitions;
+    return new TransitionTemplate("desorption", conditions, actions, rate, 0, lattice.size()-size);
   }
 
   public List<Transition> getDesorptionTransitions(double rate) {
-    List<Transition> transitions = new ArrayList<>();
-
-    for (int i = 0; i < lattice.size()-size; i++) {
-      Condition[] conditions = new Condition[1];
-      conditions[0] = new Condition(i, state);
-      Action[] actions = new Action[size];
-      for (int j = 0; j < size; j++) {
-          actions[j] = new Action(i+j, State.EMPTY);
-      }
-      transitions.add(new Transition("desorption", conditions, actions, rate));
-    }
+    return Arrays.asList(getDesorptionTemplate(rate).getTransitions());
+  }
+  
+  public List<TransitionTemplate> getDiffusionTemplates(double rate) {
+    List<TransitionTemplate> templates = new ArrayList<>();
     
-    return transitions;
+    // Diffusion to the right
+    Condition[] conditions = new Condition[2];
+    conditions[0] = new Condition(0, state);
+    conditions[1] = new Condition(size, State.EMPTY);
+    Action[] actions = new Action[3];
+    actions[0] = new Action(0, State.EMPTY);
+    actions[1] = new Action(1, state);
+    actions[2] = new Action(size, State.STERIC);
+    templates.add(new TransitionTemplate("diffusion", conditions, actions, rate, 0, lattice.size()-size-1));
+    
+    // Diffusion to the left
+    conditions = new Condition[2];
+    conditions[0] = new Condition(0, state);
+    conditions[1] = new Condition(-1, State.EMPTY);
+    actions = new Action[3];
+    actions[0] = new Action(0, State.STERIC);
+    actions[1] = new Action(-1, state);
+    actions[2] = new Action(size-1, State.EMPTY);
+    templates.add(new TransitionTemplate("diffusion", conditions, actions, rate, 1, lattice.size()-size));
+    
+    return templates;
   }
 
   public List<Transition> getDiffusionTransitions(double rate) {
     List<Transition> transitions = new ArrayList<>();
-
-    // Diffusion to the right
-    for (int i = 0; i < lattice.size()-size-1; i++) {
-      Condition[] conditions = new Condition[2];
-      conditions[0] = new Condition(i, state);
-      conditions[1] = new Condition(i+size, State.EMPTY);
-      Action[] actions = new Action[3];
-      actions[0] = new Action(i, State.EMPTY);
-      actions[1] = new Action(i+1, state);
-      actions[2] = new Action(i+size, State.STERIC);
-      transitions.add(new Transition("diffusion", conditions, actions, rate));
-    }
-    
-    // Diffusion to the left
-    for (int i = 1; i < lattice.size()-size; i++) {
-      Condition[] conditions = new Condition[2];
-      conditions[0] = new Condition(i, state);
-      conditions[1] = new Condition(i-1, State.EMPTY);
-      Action[] actions = new Action[3];
-      actions[0] = new Action(i, State.STERIC);
-      actions[1] = new Action(i-1, state);
-      actions[2] = new Action(i+size-1, State.EMPTY);
-      transitions.add(new Transition("diffusion", conditions, actions, rate));
+    for (TransitionTemplate template : getDiffusionTemplates(rate)) {
+      transitions.addAll(Arrays.asList(template.getTransitions()));
     }
     
     return transitions;
   }
   
+  public List<TransitionTemplate> getHopTemplates(double rate, int step) {
+    List<TransitionTemplate> templates = new ArrayList<>();
+    
+    return templates;
+  }
+  
   public List<Transition> getHopTransitions(double rate, int step) {
     List<Transition> transitions = new ArrayList<>();
     
@@ -1,7 +1,9 @@
 package us.palpant.science.kmc;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A dynamic enumeration of States
@@ -11,10 +13,16 @@ import java.util.Map;
  */
 public class State {
 
+  /**
+   * The maximum number of States, so that ids fit in a byte
+   */
+  public static final int MAX_STATES = 256;
+  
   /**
    * All the states that have been created
    */
   private static final Map<String, State> states = new HashMap<>();
+  private static final List<State> ids = new CopyOnWriteArrayList<>();
   private static int nStates = 0;
   public static final State EMPTY = State.forName("empty");
   public static final State STERIC = State.forName("steric");
@@ -23,17 +31,23 @@ public class State {
   private final String name;
 
   private State(String name) {
+    if (nStates == MAX_STATES) {
+      throw new IllegalStateException("Cannot create more than "+MAX_STATES+" States");
+    }
     id = nStates++;
     this.name = name;
+    ids.add(this);
   }
 
   /**
    * Factory method to get a State by name
+   * States may be created by several replicas at once,
+   * so creation is synchronized
    * 
    * @param name
    * @return
    */
-  public static State forName(String name) {
+  public static synchronized State forName(String name) {
     if (!states.containsKey(name)) {
       states.put(name, new State(name));
     }
@@ -41,8 +55,18 @@ public class State {
     return states.get(name);
   }
 
+  /**
+   * Get a State by id
+   * 
+   * @param id the id of an existing State
+   * @return the State with id
+   */
+  public static State forId(int id) {
+    return ids.get(id);
+  }
+
   public static int getNumStates() {
-    return nStates;
+    return ids.size();
   }
   
   public int getId() {
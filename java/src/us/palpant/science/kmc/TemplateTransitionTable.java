@@ -0,0 +1,195 @@
+package us.palpant.science.kmc;
+
+import java.util.Arrays;
+import java.util.List;
+
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * A TransitionTable that only stores its TransitionTemplates
+ * Transition i is the (template, site) pair found from the offset of i
+ * into the block of Transitions for each template, and its Conditions,
+ * Actions and dependencies are computed by offset when they are needed,
+ * so memory does not scale with the size of the particles
+ * @author palpant
+ *
+ */
+public class TemplateTransitionTable extends TransitionTable {
+
+  private final TransitionTemplate[] templates;
+  /**
+   * The index of the first Transition of each template
+   */
+  private final int[] starts;
+  private final short[] nameIds;
+  private final int maxConditionsOn;
+  private final int maxActions;
+
+  public TemplateTransitionTable(List<TransitionTemplate> templates) {
+    super(countTransitions(templates));
+    this.templates = templates.toArray(new TransitionTemplate[templates.size()]);
+    starts = new int[this.templates.length];
+    nameIds = new short[this.templates.length];
+
+    int start = 0, nConditions = 0, nActions = 0;
+    for (int p = 0; p < this.templates.length; p++) {
+      TransitionTemplate template = this.templates[p];
+      starts[p] = start;
+      for (int i = start; i < start+template.size(); i++) {
+        setRate(i, template.getRate());
+      }
+      start += template.size();
+      nameIds[p] = internName(template.getName());
+      nConditions += template.getConditions().length;
+      nActions = Math.max(nActions, template.getActions().length);
+    }
+    maxConditionsOn = nConditions;
+    maxActions = nActions;
+  }
+
+  private static int countTransitions(List<TransitionTemplate> templates) {
+    int n = 0;
+    for (TransitionTemplate template : templates) {
+      n += template.size();
+    }
+    return n;
+  }
+
+  /**
+   * @param i the index of a Transition
+   * @return the index of the template of Transition i
+   */
+  private int getTemplateIndex(int i) {
+    int p = Arrays.binarySearch(starts, i);
+    if (p < 0) {
+      return -p - 2;
+    }
+    // Skip templates that do not apply to any sites
+    while (p < starts.length-1 && starts[p+1] == i) {
+      p++;
+    }
+    return p;
+  }
+
+  /**
+   * @param i the index of a Transition
+   * @return the template of Transition i
+   */
+  public TransitionTemplate getTemplate(int i) {
+    return templates[getTemplateIndex(i)];
+  }
+
+  /**
+   * @param i the index of a Transition
+   * @return the site of Transition i
+   */
+  public int getSite(int i) {
+    int p = getTemplateIndex(i);
+    return templates[p].getFirst() + i - starts[p];
+  }
+
+  @Override
+  public boolean isSatisfied(int i, Lattice lattice) {
+    int p = getTemplateIndex(i);
+    return templates[p].isEnabled(lattice, templates[p].getFirst() + i - starts[p]);
+  }
+
+  @Override
+  public int countUnsatisfied(int i, Lattice lattice) {
+    int p = getTemplateIndex(i);
+    int site = templates[p].getFirst() + i - starts[p];
+    int n = 0;
+    for (Condition c : templates[p].getConditions()) {
+      if (lattice.getId(site + c.getCoord()) != c.getState().getId()) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public void perform(int i, Lattice lattice) {
+    int p = getTemplateIndex(i);
+    templates[p].perform(lattice, templates[p].getFirst() + i - starts[p]);
+  }
+
+  @Override
+  public int getNumConditions(int i) {
+    return getTemplate(i).getConditions().length;
+  }
+
+  @Override
+  public int getConditionCoord(int i, int j) {
+    return getSite(i) + getTemplate(i).getConditions()[j].getCoord();
+  }
+
+  @Override
+  public int getConditionState(int i, int j) {
+    return getTemplate(i).getConditions()[j].getState().getId();
+  }
+
+  @Override
+  public int getNumActions(int i) {
+    return getTemplate(i).getActions().length;
+  }
+
+  @Override
+  public int getActionCoord(int i, int j) {
+    return getSite(i) + getTemplate(i).getActions()[j].getCoord();
+  }
+
+  @Override
+  public int getActionState(int i, int j) {
+    return getTemplate(i).getActions()[j].getState().getId();
+  }
+
+  @Override
+  public int getActions(int i, int[] coords, int[] states) {
+    int p = getTemplateIndex(i);
+    int site = templates[p].getFirst() + i - starts[p];
+    Action[] actions = templates[p].getActions();
+    for (int j = 0; j < actions.length; j++) {
+      coords[j] = site + actions[j].getCoord();
+      states[j] = actions[j].getState().getId();
+    }
+    return actions.length;
+  }
+
+  @Override
+  public int getMaxActions() {
+    return maxActions;
+  }
+
+  @Override
+  public int getConditionsOn(int coord, int[] transitions, int[] states) {
+    int n = 0;
+    for (int p = 0; p < templates.length; p++) {
+      TransitionTemplate template = templates[p];
+      for (Condition c : template.getConditions()) {
+        int site = coord - c.getCoord();
+        if (site >= template.getFirst() && site < template.getLast()) {
+          transitions[n] = starts[p] + site - template.getFirst();
+          states[n++] = c.getState().getId();
+        }
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public int getMaxConditionsOn() {
+    return maxConditionsOn;
+  }
+
+  @Override
+  public int getNameId(int i) {
+    return nameIds[getTemplateIndex(i)];
+  }
+
+  @Override
+  public String toString() {
+    return "TemplateTransitionTable with " + size() + " transitions from "
+        + templates.length + " templates " + getNames();
+  }
+
+}
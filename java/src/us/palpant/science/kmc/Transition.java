@@ -13,6 +13,7 @@ public class Transition {
   private final int[] downstreamCoordinates;
   private double rate;
   private boolean enabled = true;
+  private int index = -1;
   
   public Transition(String name, Condition[] conditions, Action[] actions, double rate) {
     this.name = name;
@@ -69,6 +70,17 @@ public class Transition {
     this.enabled = enabled;
   }
   
+  /**
+   * @return the index of this Transition in its TransitionManager
+   */
+  public final int getIndex() {
+    return index;
+  }
+  
+  final void setIndex(int index) {
+    this.index = index;
+  }
+  
   public final String getName() {
     return name;
   }
@@ -1,12 +1,17 @@
 package us.palpant.science.kmc;
 
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.List;
+import java.util.BitSet;
 
 import org.apache.log4j.Logger;
 
 import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.random.RandomGenerator;
+import us.palpant.science.kmc.selection.Selector;
+import us.palpant.science.kmc.selection.SumTree;
 
 /**
  * Manage the Transitions database
@@ -15,119 +20,355 @@ import us.palpant.science.kmc.geometry.Lattice;
  * @author palpant
  *
  */
-public class TransitionManager {
+public class TransitionManager implements Engine {
   
   private static final Logger log = Logger.getLogger(TransitionManager.class);
 
   private final Lattice lattice;
-  private final Transition[] transitions;
-  private final double[] accumulatedRates;
-  private final List<List<Transition>> dependencies;
+  private final TransitionTable table;
+  private final Selector rates;
+  /**
+   * Aggregated hard-rod adsorptions, with indices after the table
+   */
+  private final GapIndex[] gaps;
+  private final boolean[] gapsTouched;
+  /**
+   * The number of unsatisfied Conditions of each Transition
+   * A Transition is enabled exactly when its count is zero
+   */
+  private final int[] unsatisfied;
+  /**
+   * The epoch in which each Transition was last touched,
+   * so that each Transition is only updated once per event
+   */
+  private final int[] visited;
+  private int epoch = 0;
+  /**
+   * Buffers for the Actions of a Transition, the Conditions on a coordinate,
+   * and the Transitions touched by an event
+   */
+  private final int[] actionCoords, actionStates;
+  private final int[] conditionTransitions, conditionStates;
+  private int[] touched;
+  /**
+   * The event selected by the last call to next
+   */
+  private int pending = -1;
+  /**
+   * The number of times that the Lattice has been changed, and the total
+   * number of Transitions that were re-evaluated, for metrics
+   */
+  private long nChanges = 0, nReevaluated = 0;
   
   public TransitionManager(Lattice lattice, Transition[] transitions) {
+    this(lattice, transitions, new SumTree(transitions.length));
+  }
+  
+  public TransitionManager(Lattice lattice, Transition[] transitions, Selector rates) {
+    this(lattice, new PackedTransitionTable(transitions), rates);
+  }
+  
+  public TransitionManager(Lattice lattice, TransitionTable table, Selector rates) {
+    this(lattice, table, rates, new GapIndex[0]);
+  }
+  
+  /**
+   * @param lattice the Lattice that the Transitions act on
+   * @param table the Transitions to manage
+   * @param rates the Selector for the rates of the Transitions and GapIndexes,
+   *   or null if a subclass schedules the Transitions itself
+   * @param gaps the adsorptions that are aggregated over their placements
+   */
+  public TransitionManager(Lattice lattice, TransitionTable table, Selector rates, GapIndex[] gaps) {
     this.lattice = lattice;
-    this.transitions = transitions;
-    log.debug("Initializing transition manager with "+transitions.length+" transitions");
-    accumulatedRates = new double[transitions.length];
+    this.table = table;
+    log.debug("Initializing transition manager with "+table.size()+" transitions and "
+        +gaps.length+" gap indexes");
+    this.rates = rates;
+    this.gaps = gaps;
+    gapsTouched = new boolean[gaps.length];
     
-    // Initialize the dependencies
-    dependencies = new ArrayList<>();
-    for (int i = 0; i < lattice.size(); i++) {
-      dependencies.add(new ArrayList<Transition>());
-    }
-    for (Transition t : transitions) {
-      for (int coord : t.getUpstreamCoordinates()) {
-        dependencies.get(coord).add(t);
-      }
+    unsatisfied = new int[table.size()];
+    visited = new int[table.size()];
+    int maxActions = table.getMaxActions();
+    for (GapIndex g : gaps) {
+      maxActions = Math.max(maxActions, g.getTemplate().getActions().length);
     }
+    actionCoords = new int[maxActions];
+    actionStates = new int[maxActions];
+    conditionTransitions = new int[table.getMaxConditionsOn()];
+    conditionStates = new int[table.getMaxConditionsOn()];
+    touched = new int[Math.max(16, table.getMaxConditionsOn())];
     
     updateAllTransitions();
-    updateAccumulatedRates();
+  }
+  
+  @Override
+  public double next(RandomGenerator rng, double dtMax) {
+    // The waiting time depends on the total rate before the event
+    double kTotal = getKTotal();
+    if (kTotal == 0) {
+      // Absorbing state: no event can happen, and there is nothing to select from
+      pending = -1;
+      return Double.POSITIVE_INFINITY;
+    }
+    pending = select(rng.nextDouble());
+    return rng.nextExponential() / kTotal;
+  }
+  
+  @Override
+  public void fire(RandomGenerator rng, Event event) {
+    fire(pending, rng, event);
+    pending = -1;
   }
   
   /**
-   * Get the Transition corresponding to r \in [0,1]
-   * @return the Transition selected by r
+   * Perform the event with index i, choosing a placement if it is a GapIndex
+   * @param i the index of a Transition or GapIndex
+   * @param rng the source of random numbers for choosing a placement
+   * @param event the Event to record the changes in
    */
-  public Transition getTransition(double r) {
-    r *= getKTotal();
-    
-    int selected = Arrays.binarySearch(accumulatedRates, r);
-    if (selected < 0) {
-      selected = -selected - 1;
+  protected void fire(int i, RandomGenerator rng, Event event) {
+    if (i < table.size()) {
+      event.clear(table.getName(i));
+      apply(table.getActions(i, actionCoords, actionStates), event);
+    } else {
+      GapIndex g = gaps[i-table.size()];
+      event.clear(g.getTemplate().getName());
+      setActions(g.getTemplate(), g.select(rng.nextDouble()));
+      apply(g.getTemplate().getActions().length, event);
     }
-    
-    // Don't select transitions with rate 0
-    while (selected < accumulatedRates.length-1
-        && transitions[selected].getRate() == 0) {
-      selected++;
+  }
+  
+  /**
+   * Select the index of the Transition corresponding to r \in [0,1]
+   * @return the index of the Transition selected by r
+   */
+  protected int select(double r) {
+    return rates.select(r);
+  }
+  
+  /**
+   * Set a coordinate from outside of the Transitions (e.g. when a
+   * neighboring domain has changed it), and update everything that depends on it
+   * @param coord the coordinate to set
+   * @param stateId the id of the new State
+   */
+  public void set(int coord, int stateId) {
+    actionCoords[0] = coord;
+    actionStates[0] = stateId;
+    apply(1, null);
+  }
+  
+  /**
+   * Fill the action buffers with the Actions of a TransitionTemplate at a site
+   */
+  private void setActions(TransitionTemplate template, int site) {
+    Action[] actions = template.getActions();
+    for (int j = 0; j < actions.length; j++) {
+      actionCoords[j] = site + actions[j].getCoord();
+      actionStates[j] = actions[j].getState().getId();
     }
-    
-    return transitions[selected];
   }
   
   /**
-   * Perform a Transition
-   * @param t the Transition to perform
+   * Apply the Actions in the action buffers to the Lattice
+   * and update everything that depends on them
+   * @param nActions the number of Actions in the buffers
+   * @param event the Event to record the changes in, or null
    */
-  public void perform(Transition t) {
-    for (Action a : t.getActions()) {
-      lattice.set(a.getCoord(), a.getState());
+  private void apply(int nActions, Event event) {
+    if (++epoch == Integer.MAX_VALUE) {
+      Arrays.fill(visited, 0);
+      epoch = 1;
     }
     
-    // Update downstream transitions
-    for (int coord : t.getDownstreamCoordinates()) {
-      updateTransitions(coord);
+    int nTouched = 0;
+    for (int j = 0; j < nActions; j++) {
+      int coord = actionCoords[j];
+      int newState = actionStates[j];
+      int oldState = lattice.getId(coord);
+      if (oldState == newState) {
+        continue;
+      }
+      lattice.setId(coord, newState);
+      if (event != null) {
+        event.add(lattice.index(coord), oldState, newState);
+      }
+      
+      boolean empty = (newState == State.EMPTY.getId());
+      if (empty || oldState == State.EMPTY.getId()) {
+        for (int g = 0; g < gaps.length; g++) {
+          gaps[g].update(coord, empty);
+          gapsTouched[g] = true;
+        }
+      }
+      
+      int n = table.getConditionsOn(coord, conditionTransitions, conditionStates);
+      for (int k = 0; k < n; k++) {
+        int t = conditionTransitions[k];
+        if (conditionStates[k] == oldState) {
+          unsatisfied[t]++;
+        } else if (conditionStates[k] == newState) {
+          unsatisfied[t]--;
+        } else {
+          continue;
+        }
+        
+        if (visited[t] != epoch) {
+          visited[t] = epoch;
+          if (nTouched == touched.length) {
+            touched = Arrays.copyOf(touched, 2*nTouched);
+          }
+          touched[nTouched++] = t;
+        }
+      }
     }
     
-    updateAccumulatedRates();
+    // Update downstream transitions
+    nChanges++;
+    nReevaluated += nTouched;
+    for (int k = 0; k < nTouched; k++) {
+      updateTransition(touched[k]);
+    }
+    for (int g = 0; g < gaps.length; g++) {
+      if (gapsTouched[g]) {
+        gapsTouched[g] = false;
+        rateChanged(table.size()+g);
+      }
+    }
   }
   
   /**
    * Update whether a transition is valid or not
-   * @param t the transition to update
-   */
-  private void updateTransition(Transition t) {
-    t.setEnabled(true);
-    for (Condition c : t.getConditions()) {
-      if (!lattice.isSatisfied(c)) {
-        t.setEnabled(false);
-        break;
-      }
+   * @param i the index of the transition to update
+   */
+  private void updateTransition(int i) {
+    boolean enabled = (unsatisfied[i] == 0);
+    if (enabled != table.isEnabled(i)) {
+      table.setEnabled(i, enabled);
+      rateChanged(i);
     }
   }
   
   /**
-   * Update transitions that have a condition on coord
-   * @param coord the coordinate that is changing
+   * Called when the rate of a Transition or GapIndex changes
+   * @param i the index of the Transition or GapIndex whose rate has changed
+   */
+  protected void rateChanged(int i) {
+    rates.update(i, getRate(i));
+  }
+  
+  /**
+   * @param i the index of a Transition or GapIndex
+   * @return the current rate of i
    */
-  private void updateTransitions(int coord) {
-    for (Transition t : dependencies.get(coord)) {
-      updateTransition(t);
+  public final double getRate(int i) {
+    if (i < table.size()) {
+      return table.getRate(i);
     }
+    return gaps[i-table.size()].getRate();
   }
   
   /**
-   * Do a full sweep through all transitions and update
+   * @return the number of Transitions and GapIndexes
+   */
+  public final int size() {
+    return table.size() + gaps.length;
+  }
+  
+  /**
+   * Do a full sweep through all transitions and update,
+   * in parallel over chunks of the transitions
    */
   private void updateAllTransitions() {
-    for (Transition t : transitions) {
-      updateTransition(t);
+    final double[] initial = new double[size()];
+    new ParallelLoop() {
+      @Override
+      protected void run(int lo, int hi) {
+        for (int i = lo; i < hi; i++) {
+          unsatisfied[i] = table.countUnsatisfied(i, lattice);
+          table.setEnabled(i, unsatisfied[i] == 0);
+          initial[i] = table.getRate(i);
+        }
+      }
+    }.forRange(table.size());
+    for (int g = 0; g < gaps.length; g++) {
+      initial[table.size()+g] = gaps[g].getRate();
     }
+    if (rates != null) {
+      rates.setAll(initial);
+    }
+  }
+  
+  public final long getNumChanges() {
+    return nChanges;
+  }
+  
+  public final long getNumReevaluated() {
+    return nReevaluated;
+  }
+  
+  @Override
+  public double getKTotal() {
+    return rates.getTotal();
   }
   
   /**
-   * Update all accumulated rates
+   * The enabled flags and rates are rebuilt from the Lattice, so they are
+   * only saved to check that the checkpoint matches the configuration.
+   * Only the state of the Selector that depends on its history is saved
    */
-  public void updateAccumulatedRates() {
-    accumulatedRates[0] = transitions[0].getRate();
-    for (int i = 1; i < transitions.length; i++) {
-      accumulatedRates[i] = accumulatedRates[i-1] + transitions[i].getRate();
+  @Override
+  public void save(DataOutput out) throws IOException {
+    BitSet enabled = new BitSet(table.size());
+    long hash = 0;
+    for (int i = 0; i < table.size(); i++) {
+      enabled.set(i, table.isEnabled(i));
+      hash = 31*hash + Double.doubleToLongBits(table.getRate(i));
+    }
+    long[] words = enabled.toLongArray();
+    out.writeInt(table.size());
+    out.writeLong(hash);
+    out.writeInt(words.length);
+    for (long w : words) {
+      out.writeLong(w);
+    }
+    if (rates instanceof Checkpointable) {
+      ((Checkpointable) rates).save(out);
     }
   }
   
-  public double getKTotal() {
-    return accumulatedRates[accumulatedRates.length-1];
+  @Override
+  public void restore(DataInput in) throws IOException {
+    int size = in.readInt();
+    long hash = in.readLong();
+    long[] words = new long[in.readInt()];
+    for (int w = 0; w < words.length; w++) {
+      words[w] = in.readLong();
+    }
+    BitSet enabled = BitSet.valueOf(words);
+    long expected = 0;
+    for (int i = 0; i < table.size(); i++) {
+      if (table.isEnabled(i) != enabled.get(i)) {
+        throw new IOException("Checkpoint does not match the transitions: "+table.getTransition(i));
+      }
+      expected = 31*expected + Double.doubleToLongBits(table.getRate(i));
+    }
+    if (size != table.size() || hash != expected) {
+      throw new IOException("Checkpoint does not match the transitions and their rates");
+    }
+    if (rates instanceof Checkpointable) {
+      ((Checkpointable) rates).restore(in);
+    }
+  }
+  
+  public final TransitionTable getTable() {
+    return table;
+  }
+  
+  public final GapIndex[] getGapIndexes() {
+    return gaps;
   }
   
 }
@@ -0,0 +1,203 @@
+package us.palpant.science.kmc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * A database of Transitions, identified by index
+ * Rates and enabled flags are kept in parallel primitive arrays,
+ * and subclasses decide how the Conditions and Actions are stored.
+ * Transition objects are only created on request, at the API edge
+ * @author palpant
+ *
+ */
+public abstract class TransitionTable {
+
+  private final int size;
+  private final double[] rates;
+  private final boolean[] enabled;
+  private final List<String> names = new ArrayList<>();
+
+  protected TransitionTable(int size) {
+    this.size = size;
+    rates = new double[size];
+    enabled = new boolean[size];
+  }
+
+  /**
+   * Factory method that returns a new TransitionTable
+   * @param name the type of table
+   * @param templates the TransitionTemplates to make Transitions from
+   * @return a new TransitionTable with the Transitions for all templates
+   */
+  public static TransitionTable forName(String name, List<TransitionTemplate> templates) {
+    switch (name) {
+    case "packed":
+      return new PackedTransitionTable(templates);
+    case "template":
+      return new TemplateTransitionTable(templates);
+    default:
+      throw new IllegalArgumentException("Unknown transition table: "+name);
+    }
+  }
+
+  /**
+   * @param i the index of a Transition
+   * @param lattice the Lattice to check
+   * @return whether all of the Conditions of Transition i are satisfied
+   */
+  public abstract boolean isSatisfied(int i, Lattice lattice);
+
+  /**
+   * Apply the Actions of a Transition
+   * @param i the index of a Transition
+   * @param lattice the Lattice to modify
+   */
+  public abstract void perform(int i, Lattice lattice);
+
+  public abstract int getNumConditions(int i);
+
+  public abstract int getConditionCoord(int i, int j);
+
+  public abstract int getConditionState(int i, int j);
+
+  public abstract int getNumActions(int i);
+
+  public abstract int getActionCoord(int i, int j);
+
+  public abstract int getActionState(int i, int j);
+
+  /**
+   * Get all of the Actions of a Transition at once
+   * @param i the index of a Transition
+   * @param coords the buffer to fill with the coordinate of each Action
+   * @param states the buffer to fill with the State id of each Action
+   * @return the number of Actions written to the buffers
+   */
+  public int getActions(int i, int[] coords, int[] states) {
+    int n = getNumActions(i);
+    for (int j = 0; j < n; j++) {
+      coords[j] = getActionCoord(i, j);
+      states[j] = getActionState(i, j);
+    }
+    return n;
+  }
+
+  /**
+   * @return the largest number of Actions of any Transition
+   */
+  public abstract int getMaxActions();
+
+  /**
+   * Find the Conditions on a coordinate
+   * A Transition is listed once for each of its Conditions on coord
+   * @param coord a coordinate of the Lattice
+   * @param transitions the buffer to fill with the index of the Transition
+   *   of each Condition, of length at least getMaxConditionsOn()
+   * @param states the buffer to fill with the State id of each Condition
+   * @return the number of Conditions written to the buffers
+   */
+  public abstract int getConditionsOn(int coord, int[] transitions, int[] states);
+
+  /**
+   * @return the largest number of Conditions on any one coordinate
+   */
+  public abstract int getMaxConditionsOn();
+  
+  /**
+   * Build the index of the Conditions on each coordinate, if the table
+   * keeps one, so that its cost is not paid by the first getConditionsOn
+   */
+  public void buildDependencies() { }
+  
+  /**
+   * @param i the index of a Transition
+   * @param lattice the Lattice to check
+   * @return the number of Conditions of Transition i that are not satisfied
+   */
+  public int countUnsatisfied(int i, Lattice lattice) {
+    int n = 0;
+    for (int j = 0; j < getNumConditions(i); j++) {
+      if (lattice.getId(getConditionCoord(i, j)) != getConditionState(i, j)) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  public abstract int getNameId(int i);
+
+  /**
+   * Make a Transition object for an entry of the table
+   * @param i the index of a Transition
+   * @return a new Transition with the same Conditions, Actions and rate
+   */
+  public Transition getTransition(int i) {
+    Condition[] conditions = new Condition[getNumConditions(i)];
+    for (int j = 0; j < conditions.length; j++) {
+      conditions[j] = new Condition(getConditionCoord(i, j), State.forId(getConditionState(i, j)));
+    }
+    Action[] actions = new Action[getNumActions(i)];
+    for (int j = 0; j < actions.length; j++) {
+      actions[j] = new Action(getActionCoord(i, j), State.forId(getActionState(i, j)));
+    }
+    Transition t = new Transition(getName(i), conditions, actions, rates[i]);
+    t.setEnabled(enabled[i]);
+    t.setIndex(i);
+    return t;
+  }
+
+  /**
+   * @param name the name of a Transition
+   * @return the id of name, adding it to the list of names if necessary
+   */
+  protected final short internName(String name) {
+    int id = names.indexOf(name);
+    if (id < 0) {
+      id = names.size();
+      names.add(name);
+    }
+    return (short) id;
+  }
+
+  /**
+   * @param i the index of a Transition
+   * @return the rate of Transition i, or 0 if it is not enabled
+   */
+  public final double getRate(int i) {
+    if (!enabled[i]) {
+      return 0;
+    }
+    return rates[i];
+  }
+
+  public final void setRate(int i, double rate) {
+    rates[i] = rate;
+  }
+
+  public final boolean isEnabled(int i) {
+    return enabled[i];
+  }
+
+  public final void setEnabled(int i, boolean enabled) {
+    this.enabled[i] = enabled;
+  }
+
+  public final String getName(int i) {
+    return names.get(getNameId(i));
+  }
+
+  /**
+   * @return the distinct names of the Transitions, indexed by name id
+   */
+  public final List<String> getNames() {
+    return names;
+  }
+
+  public final int size() {
+    return size;
+  }
+
+}
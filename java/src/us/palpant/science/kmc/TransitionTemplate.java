@@ -0,0 +1,127 @@
+package us.palpant.science.kmc;
+
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * A translationally invariant Transition
+ * The Conditions and Actions of a TransitionTemplate are relative to a site,
+ * so that a single TransitionTemplate describes one Transition at each site
+ * in [first, last)
+ * @author palpant
+ *
+ */
+public class TransitionTemplate {
+
+  private final String name;
+  private final Condition[] conditions;
+  private final Action[] actions;
+  private final double rate;
+  private final int first, last;
+
+  /**
+   * @param name the name of the Transitions made from this TransitionTemplate
+   * @param conditions the Conditions, with coordinates relative to the site
+   * @param actions the Actions, with coordinates relative to the site
+   * @param rate the rate of each Transition
+   * @param first the first site (inclusive)
+   * @param last the last site (exclusive)
+   */
+  public TransitionTemplate(String name, Condition[] conditions, Action[] actions, double rate, int first, int last) {
+    this.name = name;
+    this.conditions = conditions;
+    this.actions = actions;
+    this.rate = rate;
+    this.first = first;
+    this.last = Math.max(first, last);
+  }
+
+  /**
+   * @param lattice the Lattice to check
+   * @param site a site in [first, last)
+   * @return whether all of the Conditions are satisfied at site
+   */
+  public boolean isEnabled(Lattice lattice, int site) {
+    for (Condition c : conditions) {
+      if (lattice.getId(site+c.getCoord()) != c.getState().getId()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Apply the Actions of this TransitionTemplate at a site
+   * @param lattice the Lattice to modify
+   * @param site a site in [first, last)
+   */
+  public void perform(Lattice lattice, int site) {
+    for (Action a : actions) {
+      lattice.set(site+a.getCoord(), a.getState());
+    }
+  }
+
+  /**
+   * Make the Transition for a specific site
+   * @param site a site in [first, last)
+   * @return a new Transition with absolute coordinates
+   */
+  public Transition getTransition(int site) {
+    Condition[] c = new Condition[conditions.length];
+    for (int j = 0; j < conditions.length; j++) {
+      c[j] = new Condition(site+conditions[j].getCoord(), conditions[j].getState());
+    }
+    Action[] a = new Action[actions.length];
+    for (int j = 0; j < actions.length; j++) {
+      a[j] = new Action(site+actions[j].getCoord(), actions[j].getState());
+    }
+    return new Transition(name, c, a, rate);
+  }
+
+  /**
+   * @return the Transitions for all sites in [first, last)
+   */
+  public Transition[] getTransitions() {
+    Transition[] transitions = new Transition[size()];
+    for (int i = first; i < last; i++) {
+      transitions[i-first] = getTransition(i);
+    }
+    return transitions;
+  }
+
+  public final String getName() {
+    return name;
+  }
+
+  public final Condition[] getConditions() {
+    return conditions;
+  }
+
+  public final Action[] getActions() {
+    return actions;
+  }
+
+  public final double getRate() {
+    return rate;
+  }
+
+  public final int getFirst() {
+    return first;
+  }
+
+  public final int getLast() {
+    return last;
+  }
+
+  /**
+   * @return the number of sites that this TransitionTemplate applies to
+   */
+  public final int size() {
+    return last - first;
+  }
+
+  @Override
+  public String toString() {
+    return name + " [" + first + ", " + last + ") rate = " + rate;
+  }
+
+}
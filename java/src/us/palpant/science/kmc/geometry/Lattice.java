@@ -1,49 +1,105 @@
 package us.palpant.science.kmc.geometry;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+import us.palpant.science.kmc.Checkpointable;
 import us.palpant.science.kmc.Condition;
 import us.palpant.science.kmc.State;
 
 /**
  * An array of States (possibly with periodic boundaries)
+ * States are stored compactly by id, one byte per site, and the number
+ * of sites in each State is kept up to date as sites are set
  * @author palpant
  *
  */
-public class Lattice implements Iterable<State> {
+public class Lattice implements Iterable<State>, Checkpointable {
   
-  private final State[] states;
+  private final byte[] states;
+  /**
+   * The number of sites in each State, indexed by id
+   */
+  private final int[] counts = new int[State.MAX_STATES];
   private final BoundaryCondition bc;
+  private final boolean periodic;
   
   public Lattice(int size, BoundaryCondition bc) {
     this.bc = bc;
-    states = new State[size];
+    periodic = (bc == BoundaryCondition.PERIODIC);
+    states = new byte[size];
+    counts[0] = size;
+  }
+  
+  /**
+   * Make a copy of another Lattice
+   * @param other the Lattice to copy
+   */
+  public Lattice(Lattice other) {
+    bc = other.bc;
+    periodic = other.periodic;
+    states = other.states.clone();
+    System.arraycopy(other.counts, 0, counts, 0, counts.length);
   }
 
   @Override
   public Iterator<State> iterator() {
-    return Arrays.asList(states).iterator();
+    return new Iterator<State>() {
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i < states.length;
+      }
+
+      @Override
+      public State next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return State.forId(states[i++] & 0xFF);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
   }
   
   public State get(int i) {
-    if (bc == BoundaryCondition.PERIODIC) {
-      i = getPeriodicWrap(i);
-    }
-    
-    return states[i];
+    return State.forId(getId(i));
   }
   
   public void set(int i, State s) {
-    if (bc == BoundaryCondition.PERIODIC) {
-      i = getPeriodicWrap(i);
-    }
-    
-    states[i] = s;
+    setId(i, s.getId());
+  }
+  
+  /**
+   * @param i a coordinate
+   * @return the id of the State at i
+   */
+  public int getId(int i) {
+    return states[index(i)] & 0xFF;
+  }
+  
+  /**
+   * @param i a coordinate
+   * @param id the id of the State to set at i
+   */
+  public void setId(int i, int id) {
+    int index = index(i);
+    counts[states[index] & 0xFF]--;
+    counts[id]++;
+    states[index] = (byte) id;
   }
   
   public boolean isSatisfied(Condition c) {
-    return get(c.getCoord()) == c.getState();
+    return getId(c.getCoord()) == c.getState().getId();
   }
   
   /**
@@ -51,29 +107,63 @@ public class Lattice implements Iterable<State> {
    * @param s the state to set the lattice to
    */
   public void fill(State s) {
-    Arrays.fill(states, s);
+    Arrays.fill(states, (byte) s.getId());
+    Arrays.fill(counts, 0);
+    counts[s.getId()] = states.length;
   }
   
   public final int size() {
     return states.length;
   }
   
-  public final int count(State state) {
-    int count = 0;
-    for (State s : states) {
-      if (s == state) {
-        count++;
-      }
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeInt(states.length);
+    out.write(states);
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    int size = in.readInt();
+    if (size != states.length) {
+      throw new IOException("Checkpoint is of a lattice of "+size+" sites, not "+states.length);
+    }
+    in.readFully(states);
+    Arrays.fill(counts, 0);
+    for (byte s : states) {
+      counts[s & 0xFF]++;
     }
-    return count;
   }
   
-  private int getPeriodicWrap(int i) {
-    if (i < 0) {
-      return getPeriodicWrap(size()+i);
+  /**
+   * Particles only mark their first site with their State,
+   * so this is also the number of particles of that type
+   * @param state a State
+   * @return the number of sites in state
+   */
+  public final int count(State state) {
+    return counts[state.getId()];
+  }
+  
+  /**
+   * @return the fraction of sites that are not empty
+   */
+  public final double getCoverage() {
+    return 1 - (double) counts[State.EMPTY.getId()] / states.length;
+  }
+  
+  /**
+   * Map a coordinate into the array, wrapping if the boundaries are periodic
+   * @param i a coordinate
+   * @return the index of i in [0, size)
+   */
+  public int index(int i) {
+    if (!periodic) {
+      return i;
     }
     
-    return i % size();
+    int r = i % states.length;
+    return r + ((r >> 31) & states.length);
   }
   
   /**
@@ -85,9 +175,9 @@ public class Lattice implements Iterable<State> {
   
   @Override
   public String toString() {
-    StringBuilder sb = new StringBuilder();
-    for (State s : states) {
-      sb.append(s.getId());
+    StringBuilder sb = new StringBuilder(states.length);
+    for (byte s : states) {
+      sb.append(s & 0xFF);
     }
     return sb.toString();
   }
@@ -0,0 +1,205 @@
+package us.palpant.science.kmc.plugins;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import us.palpant.science.kmc.Event;
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * Run a Plugin on its own thread
+ * The simulation thread publishes the samples and Events into a RingBuffer,
+ * and the consumer thread replays the Events onto a private copy of the
+ * Lattice before passing them on, so the Plugin sees exactly the same
+ * sequence of Lattice states as if it were run synchronously.
+ * When the buffer is full, the simulation thread either blocks, or
+ * (if drop is set) discards samples. Events are never dropped, since
+ * the copy of the Lattice would then diverge
+ * @author palpant
+ *
+ */
+public class AsyncPlugin extends Plugin {
+  
+  private static final Logger log = Logger.getLogger(AsyncPlugin.class);
+  
+  /**
+   * How long to wait between polls of the buffer, once spinning has failed
+   */
+  private static final long PARK_NANOS = 50_000;
+  private static final int SPINS = 100;
+  
+  private final Plugin plugin;
+  private final RingBuffer buffer;
+  private final boolean drop;
+  private final Thread consumer;
+  private volatile boolean closed = false;
+  private volatile Throwable failure;
+  private long nDropped = 0;
+  
+  /**
+   * @param lattice the Lattice of the simulation
+   * @param plugin the Plugin to run, which must have been made
+   *   with a copy of lattice
+   * @param capacity the size of the buffer
+   * @param drop whether to drop samples rather than block when the buffer is full
+   */
+  public AsyncPlugin(Lattice lattice, Plugin plugin, int capacity, boolean drop) {
+    super(lattice);
+    if (plugin.lattice == lattice) {
+      throw new IllegalArgumentException("An asynchronous plugin needs its own copy of the lattice");
+    }
+    this.plugin = plugin;
+    this.drop = drop;
+    buffer = new RingBuffer(capacity);
+    setSchedule(plugin.getSchedule());
+    
+    consumer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        consume();
+      }
+    }, "plugin-"+plugin.getClass().getSimpleName());
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+  
+  private void consume() {
+    try {
+      int spins = 0;
+      while (true) {
+        Event event = buffer.peek();
+        if (event == null) {
+          if (closed && buffer.isEmpty()) {
+            break;
+          }
+          spins = idle(spins);
+          continue;
+        }
+        
+        spins = 0;
+        if (buffer.isSample()) {
+          plugin.process(event.getTime());
+        } else if (buffer.isReset()) {
+          plugin.reset(event.getTime());
+        } else {
+          event.apply(plugin.lattice);
+          plugin.performed(event);
+        }
+        buffer.release();
+      }
+    } catch (Throwable e) {
+      log.error("Error in asynchronous plugin", e);
+      failure = e;
+    }
+  }
+  
+  /**
+   * Spin for a while, and then park, while waiting for the other thread
+   * @param spins the number of times that the caller has already waited
+   * @return the new number of times that the caller has waited
+   */
+  private static int idle(int spins) {
+    if (spins < SPINS) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+    return spins + 1;
+  }
+  
+  private void checkFailure() {
+    if (failure != null) {
+      throw new RuntimeException("Asynchronous plugin failed", failure);
+    }
+  }
+
+  @Override
+  public void process(double time) {
+    int spins = 0;
+    while (!buffer.offerSample(time)) {
+      if (drop) {
+        nDropped++;
+        return;
+      }
+      checkFailure();
+      spins = idle(spins);
+    }
+  }
+  
+  @Override
+  public void performed(Event event) {
+    int spins = 0;
+    while (!buffer.offer(event)) {
+      checkFailure();
+      spins = idle(spins);
+    }
+  }
+  
+  /**
+   * Resets are never dropped, since they are in order with the Events
+   */
+  @Override
+  public void reset(double time) {
+    int spins = 0;
+    while (!buffer.offerReset(time)) {
+      checkFailure();
+      spins = idle(spins);
+    }
+  }
+
+  /**
+   * Wait for the consumer to finish everything in the buffer,
+   * and then save the Plugin, whose copy of the Lattice is then up to date
+   */
+  @Override
+  public void save(DataOutput out) throws IOException {
+    int spins = 0;
+    while (!buffer.isEmpty()) {
+      checkFailure();
+      spins = idle(spins);
+    }
+    checkFailure();
+    plugin.save(out);
+  }
+  
+  /**
+   * The Plugin's copy of the Lattice was made from the restored Lattice
+   */
+  @Override
+  public void restore(DataInput in) throws IOException {
+    plugin.restore(in);
+  }
+  
+  /**
+   * Wait for the consumer to finish everything in the buffer,
+   * and then close the Plugin
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    try {
+      consumer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for asynchronous plugin", e);
+    }
+    if (nDropped > 0) {
+      log.warn("Dropped "+nDropped+" samples from asynchronous "+plugin.getClass().getSimpleName());
+    }
+    plugin.close();
+    checkFailure();
+  }
+  
+  public Plugin getPlugin() {
+    return plugin;
+  }
+  
+  public long getNumDropped() {
+    return nDropped;
+  }
+
+}
@@ -0,0 +1,86 @@
+package us.palpant.science.kmc.plugins;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.log4j.Logger;
+
+import us.palpant.Ark;
+import us.palpant.science.kmc.Event;
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.trajectory.TrajectoryWriter;
+
+/**
+ * Write a binary trajectory with every event, and a keyframe
+ * of the full lattice every so many events
+ * @author palpant
+ *
+ */
+public class BinaryTrajectory extends Plugin {
+  
+  private static final Logger log = Logger.getLogger(BinaryTrajectory.class);
+  
+  private final TrajectoryWriter writer;
+  private final long keyframe;
+  private double lastTime = 0;
+  
+  public BinaryTrajectory(Lattice lattice, Ark config) throws IOException {
+    super(lattice);
+    Path outputFile = Paths.get((String) config.get("name"));
+    log.info("Initializing binary trajectory output: "+outputFile);
+    boolean resume = config.has("resume") && Boolean.parseBoolean((String) config.get("resume"));
+    String lineage = config.has("rng_lineage") ? (String) config.get("rng_lineage") : "";
+    writer = new TrajectoryWriter(outputFile, lattice, resume, lineage);
+    
+    if (config.has("keyframe")) {
+      keyframe = Long.parseLong((String) config.get("keyframe"));
+    } else {
+      keyframe = 10_000;
+    }
+    
+    if (!resume) {
+      writer.writeKeyframe(0, lattice);
+    }
+  }
+
+  @Override
+  public void process(double time) { }
+  
+  @Override
+  public void performed(Event event) {
+    try {
+      writer.writeEvent(event);
+      if (writer.getNumEvents() % keyframe == 0) {
+        writer.writeKeyframe(event.getTime(), lattice);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Error writing trajectory", e);
+    }
+    lastTime = event.getTime();
+  }
+
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeDouble(lastTime);
+    writer.save(out);
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    lastTime = in.readDouble();
+    writer.restore(in);
+  }
+
+  @Override
+  public void close() throws IOException {
+    log.debug("Closing binary trajectory with "+writer.getNumEvents()+" events");
+    if (writer.getNumEvents() % keyframe != 0) {
+      writer.writeKeyframe(lastTime, lattice);
+    }
+    writer.close();
+  }
+
+}
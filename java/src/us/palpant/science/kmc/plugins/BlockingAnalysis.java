@@ -0,0 +1,143 @@
+package us.palpant.science.kmc.plugins;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import us.palpant.science.kmc.Checkpointable;
+
+/**
+ * Online estimate of the standard error of the mean of a correlated
+ * time series, by repeatedly averaging pairs of samples into blocks
+ * (Flyvbjerg and Petersen, 1989). Once blocks are longer than the
+ * correlation time their means are independent, and the naive standard
+ * error of the block means reaches a plateau at the true standard error.
+ * Memory is O(log n)
+ * @author palpant
+ *
+ */
+public class BlockingAnalysis implements Checkpointable {
+  
+  /**
+   * The minimum number of blocks for a level to be used
+   */
+  public static final int MIN_BLOCKS = 32;
+  
+  private long[] counts = new long[64];
+  private double[] sums = new double[64];
+  private double[] sumsOfSquares = new double[64];
+  private double[] pending = new double[64];
+  private boolean[] hasPending = new boolean[64];
+  private int levels = 0;
+  
+  public void add(double x) {
+    int k = 0;
+    while (true) {
+      if (k == levels) {
+        levels++;
+      }
+      counts[k]++;
+      sums[k] += x;
+      sumsOfSquares[k] += x*x;
+      if (!hasPending[k]) {
+        pending[k] = x;
+        hasPending[k] = true;
+        return;
+      }
+      x = (pending[k] + x) / 2;
+      hasPending[k] = false;
+      k++;
+    }
+  }
+  
+  public void clear() {
+    Arrays.fill(counts, 0);
+    Arrays.fill(sums, 0);
+    Arrays.fill(sumsOfSquares, 0);
+    Arrays.fill(hasPending, false);
+    levels = 0;
+  }
+  
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeInt(levels);
+    for (int k = 0; k < levels; k++) {
+      out.writeLong(counts[k]);
+      out.writeDouble(sums[k]);
+      out.writeDouble(sumsOfSquares[k]);
+      out.writeDouble(pending[k]);
+      out.writeBoolean(hasPending[k]);
+    }
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    clear();
+    levels = in.readInt();
+    for (int k = 0; k < levels; k++) {
+      counts[k] = in.readLong();
+      sums[k] = in.readDouble();
+      sumsOfSquares[k] = in.readDouble();
+      pending[k] = in.readDouble();
+      hasPending[k] = in.readBoolean();
+    }
+  }
+  
+  public long getCount() {
+    return counts[0];
+  }
+  
+  public double getMean() {
+    return sums[0] / counts[0];
+  }
+  
+  /**
+   * @return the variance of the samples
+   */
+  public double getVariance() {
+    return getVariance(0);
+  }
+  
+  private double getVariance(int k) {
+    double mean = sums[k] / counts[k];
+    return Math.max(0, sumsOfSquares[k]/counts[k] - mean*mean);
+  }
+  
+  /**
+   * @param k a level
+   * @return the naive standard error of the mean of the blocks of level k
+   */
+  private double getStandardError(int k) {
+    return Math.sqrt(getVariance(k) / (counts[k] - 1));
+  }
+  
+  /**
+   * @return the largest standard error of any level with enough blocks,
+   *   which is a conservative estimate of the plateau, or infinity if
+   *   there are not enough samples yet
+   */
+  public double getStandardError() {
+    if (counts[0] < 2*MIN_BLOCKS) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double se = 0;
+    for (int k = 0; k < levels && counts[k] >= MIN_BLOCKS; k++) {
+      se = Math.max(se, getStandardError(k));
+    }
+    return se;
+  }
+  
+  /**
+   * @return the integrated autocorrelation time, in samples
+   */
+  public double getAutocorrelationTime() {
+    double variance = getVariance();
+    if (variance == 0) {
+      return 0.5;
+    }
+    double se = getStandardError();
+    return counts[0] * se * se / (2 * variance);
+  }
+  
+}
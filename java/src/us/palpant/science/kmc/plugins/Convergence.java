@@ -0,0 +1,214 @@
+package us.palpant.science.kmc.plugins;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import us.palpant.Ark;
+import us.palpant.science.kmc.Event;
+import us.palpant.science.kmc.State;
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * Detect when the number of objects of a certain state has become
+ * stationary, and stop the simulation once its mean is known well enough
+ * 
+ * The count is sampled on the time grid of the Schedule. Burn-in is
+ * detected with the marginal standard error rule (MSER, White 1997):
+ * the series is stationary once the truncation point that minimizes the
+ * standard error of the remaining mean lies in its first half. At that
+ * point the other plugins are reset, so that they only accumulate the
+ * stationary part of the run. After that, the standard error and the
+ * integrated autocorrelation time are estimated online with a
+ * BlockingAnalysis, and the simulation finishes once the standard error
+ * is below the tolerance (relative to the mean, if 'relative' is set)
+ * @author palpant
+ *
+ */
+public class Convergence extends Plugin {
+  
+  private static final Logger log = Logger.getLogger(Convergence.class);
+  
+  /**
+   * The number of samples before burn-in is first tested
+   */
+  private static final int MIN_SAMPLES = 64;
+  
+  private final State state;
+  private final Path outputFile;
+  private final double tolerance;
+  private final boolean relative;
+  private final double interval;
+  private List<Plugin> observers;
+  
+  private double[] series = new double[MIN_SAMPLES];
+  private double[] times = new double[MIN_SAMPLES];
+  private int n = 0;
+  private boolean burnedIn = false;
+  private double burnInTime = Double.NaN, startTime = Double.NaN;
+  private final BlockingAnalysis stats = new BlockingAnalysis();
+  private volatile boolean finished = false;
+  private double lastTime = 0;
+  
+  public Convergence(Lattice lattice, Ark config) {
+    super(lattice);
+    state = State.forName((String) config.get("state"));
+    outputFile = Paths.get((String) config.get("name"));
+    tolerance = Double.parseDouble((String) config.get("tolerance"));
+    relative = config.has("relative") && Boolean.parseBoolean((String) config.get("relative"));
+    if (!config.has("interval")) {
+      throw new IllegalArgumentException("Convergence must be sampled on a time grid ('interval')");
+    }
+    interval = Double.parseDouble((String) config.get("interval"));
+  }
+  
+  /**
+   * @param observers the plugins to reset when burn-in is detected
+   */
+  public void setObservers(List<Plugin> observers) {
+    this.observers = observers;
+  }
+
+  @Override
+  public void process(double time) {
+    int count = lattice.count(state);
+    if (burnedIn) {
+      stats.add(count);
+      double target = relative ? tolerance * Math.abs(stats.getMean()) : tolerance;
+      if (!finished && stats.getStandardError() <= target) {
+        log.info("Converged at t = "+time+": mean = "+stats.getMean()
+            +" +/- "+stats.getStandardError());
+        finished = true;
+      }
+      return;
+    }
+    
+    if (n == series.length) {
+      series = Arrays.copyOf(series, 2*n);
+      times = Arrays.copyOf(times, 2*n);
+    }
+    series[n] = count;
+    times[n++] = time;
+    
+    // Test at every power of two, so the total cost is O(samples)
+    if (n >= MIN_SAMPLES && Integer.bitCount(n) == 1) {
+      int d = getTruncation();
+      if (d <= n/2) {
+        burnedIn = true;
+        burnInTime = times[d];
+        startTime = time;
+        series = null;
+        times = null;
+        log.info("Burn-in detected at t = "+burnInTime+", accumulating from t = "+time);
+        if (observers != null) {
+          for (Plugin p : observers) {
+            if (p != this) {
+              p.reset(time);
+            }
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * @return the truncation point that minimizes the marginal standard error,
+   *   keeping at least a quarter of the series
+   */
+  private int getTruncation() {
+    double s1 = 0, s2 = 0;
+    int best = n-1;
+    double bestMser = Double.POSITIVE_INFINITY;
+    for (int d = n-1; d >= 0; d--) {
+      s1 += series[d];
+      s2 += series[d]*series[d];
+      int m = n - d;
+      if (m < n/4) {
+        continue;
+      }
+      double mser = (s2 - s1*s1/m) / ((double) m*m);
+      if (mser <= bestMser) {
+        bestMser = mser;
+        best = d;
+      }
+    }
+    return best;
+  }
+  
+  @Override
+  public void performed(Event event) {
+    lastTime = event.getTime();
+  }
+  
+  @Override
+  public boolean isFinished() {
+    return finished;
+  }
+
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeBoolean(burnedIn);
+    out.writeDouble(burnInTime);
+    out.writeDouble(startTime);
+    out.writeBoolean(finished);
+    out.writeDouble(lastTime);
+    if (!burnedIn) {
+      out.writeInt(n);
+      for (int i = 0; i < n; i++) {
+        out.writeDouble(series[i]);
+        out.writeDouble(times[i]);
+      }
+    }
+    stats.save(out);
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    burnedIn = in.readBoolean();
+    burnInTime = in.readDouble();
+    startTime = in.readDouble();
+    finished = in.readBoolean();
+    lastTime = in.readDouble();
+    if (burnedIn) {
+      series = null;
+      times = null;
+    } else {
+      n = in.readInt();
+      series = new double[Math.max(MIN_SAMPLES, n)];
+      times = new double[series.length];
+      for (int i = 0; i < n; i++) {
+        series[i] = in.readDouble();
+        times[i] = in.readDouble();
+      }
+    }
+    stats.restore(in);
+  }
+
+  @Override
+  public void close() throws IOException {
+    log.debug("Writing convergence report to: "+outputFile);
+    try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(outputFile, Charset.defaultCharset()))) {
+      writer.println("state\t"+state);
+      writer.println("converged\t"+finished);
+      writer.println("burn_in_time\t"+burnInTime);
+      writer.println("start_time\t"+startTime);
+      writer.println("end_time\t"+lastTime);
+      writer.println("samples\t"+stats.getCount());
+      if (stats.getCount() > 0) {
+        writer.println("mean\t"+stats.getMean());
+        writer.println("standard_error\t"+stats.getStandardError());
+        writer.println("autocorrelation_time\t"+stats.getAutocorrelationTime()*interval);
+      }
+    }
+  }
+
+}
@@ -1,5 +1,7 @@
 package us.palpant.science.kmc.plugins;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.Charset;
@@ -10,53 +12,119 @@ import java.nio.file.Paths;
 import org.apache.log4j.Logger;
 
 import us.palpant.Ark;
+import us.palpant.science.kmc.Event;
 import us.palpant.science.kmc.State;
 import us.palpant.science.kmc.geometry.Lattice;
 
 /**
  * Calculate the fraction of the time that each lattice point
  * is in a certain state
+ * The time that each site entered the state is kept, and its occupancy
+ * is accumulated when it leaves, so each event only touches the sites
+ * that it changed
  * 
  * @author timpalpant
  *
  */
-public class Distribution extends Plugin {
+public class Distribution extends Plugin implements Mergeable<Distribution> {
   
   private static final Logger log = Logger.getLogger(Distribution.class);
   
   private final State state;
   private final Path outputFile;
-  private double lastTime = 0;
-  private Lattice lastState;
+  private double startTime = 0, lastTime = 0;
+  private double[] since;
   private double[] dist;
+  private boolean finished = false;
   
   public Distribution(Lattice lattice, Ark config) {
     super(lattice);
-    lastState = new Lattice(lattice.size(), lattice.getBoundaryCondition());
+    since = new double[lattice.size()];
     dist = new double[lattice.size()];
     state = State.forName((String)config.get("state"));
     outputFile = Paths.get((String)config.get("name"));
   }
 
   @Override
-  public void process(double time) {
-    double dt = time - lastTime;
-    for (int i = 0; i < lastState.size(); i++) {
-      if (lastState.get(i) == state) {
-        dist[i] += dt;
+  public void process(double time) { }
+  
+  @Override
+  public void performed(Event event) {
+    double time = event.getTime();
+    for (int j = 0; j < event.size(); j++) {
+      int i = event.getCoord(j);
+      if (event.getOldState(j) == state.getId()) {
+        dist[i] += time - since[i];
+      } else if (event.getNewState(j) == state.getId()) {
+        since[i] = time;
       }
-      lastState.set(i, lattice.get(i));
     }
     
     lastTime = time;
   }
 
+  @Override
+  public void reset(double time) {
+    for (int i = 0; i < lattice.size(); i++) {
+      dist[i] = 0;
+      since[i] = time;
+    }
+    startTime = time;
+    lastTime = time;
+  }
+
+  /**
+   * Add the occupancy of the sites that are still in the state
+   */
+  private void finish() {
+    if (finished) {
+      return;
+    }
+    for (int i = 0; i < lattice.size(); i++) {
+      if (lattice.getId(i) == state.getId()) {
+        dist[i] += lastTime - since[i];
+      }
+    }
+    finished = true;
+  }
+  
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeDouble(startTime);
+    out.writeDouble(lastTime);
+    for (int i = 0; i < dist.length; i++) {
+      out.writeDouble(since[i]);
+      out.writeDouble(dist[i]);
+    }
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    startTime = in.readDouble();
+    lastTime = in.readDouble();
+    for (int i = 0; i < dist.length; i++) {
+      since[i] = in.readDouble();
+      dist[i] = in.readDouble();
+    }
+  }
+  
+  @Override
+  public void merge(Distribution replica) {
+    replica.finish();
+    finished = true;
+    for (int i = 0; i < dist.length; i++) {
+      dist[i] += replica.dist[i];
+    }
+    lastTime += replica.lastTime - replica.startTime;
+  }
+
   @Override
   public void close() throws IOException {
+    finish();
     log.debug("Writing distribution to output file: "+outputFile);
     try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(outputFile, Charset.defaultCharset()))) {
-      for (int i = 0; i < lastState.size(); i++) {
-        writer.println(i+"\t"+dist[i]/lastTime);
+      for (int i = 0; i < dist.length; i++) {
+        writer.println(i+"\t"+dist[i]/(lastTime-startTime));
       }
     }
   }
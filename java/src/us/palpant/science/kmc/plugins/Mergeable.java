@@ -0,0 +1,18 @@
+package us.palpant.science.kmc.plugins;
+
+/**
+ * A Plugin whose results from independent replicas can be combined
+ * @author palpant
+ *
+ */
+public interface Mergeable<T extends Plugin> {
+
+  /**
+   * Add the results of a replica that has finished and been closed,
+   * weighted by the time that it simulated. A Plugin that has merged
+   * replicas only writes their combined results, and ignores its own Lattice
+   * @param replica the Plugin of a replica, with the same configuration
+   */
+  public void merge(T replica);
+  
+}
@@ -1,38 +1,51 @@
 package us.palpant.science.kmc.plugins;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import us.palpant.Ark;
+import us.palpant.science.kmc.Event;
 import us.palpant.science.kmc.State;
 import us.palpant.science.kmc.geometry.Lattice;
 
 /**
  * Calculate the number of objects of a certain state on the Lattice
+ * The time-weighted average is also kept, so that replicas can be merged
  * 
  * @author timpalpant
  *
  */
-public class NObjects extends Plugin {
+public class NObjects extends Plugin implements Mergeable<NObjects> {
   
   private static final Logger log = Logger.getLogger(NObjects.class);
   
   private final State state;
   private final Path outputFile;
   private final PrintWriter writer;
+  private double startTime = 0, lastTime = 0;
+  private int lastCount;
+  private double integral = 0;
+  /**
+   * The simulated time and average of each merged replica
+   */
+  private final List<double[]> replicas = new ArrayList<>();
   
   public NObjects(Lattice lattice, Ark config) throws IOException {
     super(lattice);
     state = State.forName((String)config.get("state"));
     outputFile = Paths.get((String)config.get("name"));
     log.debug("Opening nobjects output: "+outputFile);
-    writer = new PrintWriter(Files.newBufferedWriter(outputFile, Charset.defaultCharset()));
+    writer = openWriter(outputFile, config);
+    lastCount = lattice.count(state);
   }
   
   @Override
@@ -40,8 +53,66 @@ public class NObjects extends Plugin {
     writer.println(time+"\t"+lattice.count(state));
   }
 
+  @Override
+  public void performed(Event event) {
+    integral += lastCount * (event.getTime() - lastTime);
+    lastTime = event.getTime();
+    lastCount = lattice.count(state);
+  }
+  
+  @Override
+  public void reset(double time) {
+    integral = 0;
+    startTime = time;
+    lastTime = time;
+  }
+  
+  @Override
+  public void save(DataOutput out) throws IOException {
+    writer.flush();
+    out.writeLong(Files.size(outputFile));
+    out.writeDouble(startTime);
+    out.writeDouble(lastTime);
+    out.writeInt(lastCount);
+    out.writeDouble(integral);
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    truncate(outputFile, in.readLong());
+    startTime = in.readDouble();
+    lastTime = in.readDouble();
+    lastCount = in.readInt();
+    integral = in.readDouble();
+  }
+  
+  /**
+   * @return the time-weighted average number of objects
+   */
+  public double getAverage() {
+    return integral / (lastTime-startTime);
+  }
+  
+  /**
+   * Merged replicas are written as their index, simulated time and average,
+   * followed by the average over all of them, weighted by simulated time
+   */
+  @Override
+  public void merge(NObjects replica) {
+    double duration = replica.lastTime - replica.startTime;
+    replicas.add(new double[] { duration, replica.getAverage() });
+    integral += replica.integral;
+    lastTime += duration;
+  }
+
   @Override
   public void close() throws IOException {
+    if (replicas.size() > 0) {
+      for (int r = 0; r < replicas.size(); r++) {
+        writer.println(r+"\t"+replicas.get(r)[0]+"\t"+replicas.get(r)[1]);
+      }
+      writer.println("all\t"+lastTime+"\t"+getAverage());
+    }
     log.debug("Closing output file: "+outputFile);
     writer.close();
   }
@@ -1,23 +1,38 @@
 package us.palpant.science.kmc.plugins;
 
 import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.log4j.Logger;
 
 import us.palpant.Ark;
+import us.palpant.science.kmc.Checkpointable;
+import us.palpant.science.kmc.Event;
 import us.palpant.science.kmc.geometry.Lattice;
 
 /**
- * A plugin is called once per KMC time step
+ * A plugin is called once per KMC time step,
+ * or as often as its Schedule specifies
+ * Plugins that accumulate anything save it in checkpoints. When the
+ * simulation is resumed, their config has 'resume' set, and their
+ * outputs are truncated to their length at the checkpoint
  * @author timpalpant
  *
  */
-public abstract class Plugin implements Closeable {
+public abstract class Plugin implements Closeable, Checkpointable {
   
   private static final Logger log = Logger.getLogger(Plugin.class);
 
   protected final Lattice lattice;
+  private Schedule schedule = new Schedule();
   
   protected Plugin(Lattice lattice) {
     this.lattice = lattice;
@@ -25,18 +40,56 @@ public abstract class Plugin implements Closeable {
   
   /**
    * Factory method that returns a new Plugin
+   * If 'async' is set, the Plugin runs on its own thread with a copy of
+   * the Lattice (see AsyncPlugin), with a buffer of 'buffer' events
+   * and 'backpressure' either 'block' (the default) or 'drop'
    * @param config the Ark configuration for the Plugin
    * @return a new Plugin that has been initialized with config
    * @throws IOException 
    */
   public static Plugin forConfig(Lattice lattice, Ark config) throws IOException {
+    if (config.has("async") && Boolean.parseBoolean((String) config.get("async"))) {
+      if ("convergence".equals(config.get("type"))) {
+        throw new RuntimeException("Convergence plugins cannot run asynchronously");
+      }
+      int capacity = 4096;
+      if (config.has("buffer")) {
+        capacity = Integer.parseInt((String) config.get("buffer"));
+      }
+      boolean drop = false;
+      if (config.has("backpressure")) {
+        String backpressure = (String) config.get("backpressure");
+        switch (backpressure) {
+        case "block":
+          break;
+        case "drop":
+          drop = true;
+          break;
+        default:
+          throw new RuntimeException("Unknown backpressure: "+backpressure);
+        }
+      }
+      
+      Plugin p = newPlugin(new Lattice(lattice), config);
+      log.debug("Running plugin on its own thread with a buffer of "+capacity+" events");
+      return new AsyncPlugin(lattice, p, capacity, drop);
+    }
+    
+    return newPlugin(lattice, config);
+  }
+  
+  private static Plugin newPlugin(Lattice lattice, Ark config) throws IOException {
     String pluginType = (String) config.get("type");
     log.debug("Initializing plugin of type "+pluginType);
     
     Plugin p;
     switch(pluginType) {
     case "trajectory":
-      p = new Trajectory(lattice, config);
+      if (config.has("format") && config.get("format").equals("binary")) {
+        p = new BinaryTrajectory(lattice, config);
+      } else {
+        p = new Trajectory(lattice, config);
+      }
       break;
     case "distribution":
       p = new Distribution(lattice, config);
@@ -50,9 +103,13 @@ public abstract class Plugin implements Closeable {
     case "twobody":
       p = new TwoBody(lattice, config);
       break;
+    case "convergence":
+      p = new Convergence(lattice, config);
+      break;
     default:
       throw new RuntimeException("Unknown plugin type: "+pluginType);
     }
+    p.setSchedule(p.newSchedule(config));
 
     return p;
   }
@@ -63,4 +120,78 @@ public abstract class Plugin implements Closeable {
    */
   public abstract void process(double time);
   
+  /**
+   * Called after every event, regardless of the Schedule,
+   * with the changes that it made to the Lattice
+   * @param event the changes made by the event, which is reused
+   *   after this call returns
+   */
+  public void performed(Event event) { }
+  
+  /**
+   * Discard everything that has been accumulated so far,
+   * and only accumulate from time on (e.g. after burn-in)
+   * @param time the time to start accumulating from
+   */
+  public void reset(double time) { }
+  
+  /**
+   * @return whether this plugin has seen enough, so the simulation can stop
+   */
+  public boolean isFinished() {
+    return false;
+  }
+  
+  @Override
+  public void save(DataOutput out) throws IOException { }
+  
+  @Override
+  public void restore(DataInput in) throws IOException { }
+  
+  /**
+   * Open a text output, or reopen it for appending if the simulation is being resumed
+   * @param path the output file
+   * @param config the Ark configuration for the Plugin
+   * @return a new writer for path
+   * @throws IOException
+   */
+  protected static PrintWriter openWriter(Path path, Ark config) throws IOException {
+    if (config.has("resume") && Boolean.parseBoolean((String) config.get("resume"))) {
+      return new PrintWriter(Files.newBufferedWriter(path, Charset.defaultCharset(),
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    }
+    return new PrintWriter(Files.newBufferedWriter(path, Charset.defaultCharset()));
+  }
+  
+  /**
+   * Cut an output back to its length at a checkpoint
+   * @param path the output file
+   * @param size the length of path at the checkpoint
+   * @throws IOException
+   */
+  protected static void truncate(Path path, long size) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      if (channel.size() < size) {
+        throw new IOException("Output is shorter than at the checkpoint: "+path);
+      }
+      channel.truncate(size);
+    }
+  }
+  
+  /**
+   * @param config the Ark configuration for the Plugin
+   * @return the Schedule that the Plugin is sampled on
+   */
+  protected Schedule newSchedule(Ark config) {
+    return Schedule.forConfig(config);
+  }
+  
+  public final Schedule getSchedule() {
+    return schedule;
+  }
+  
+  public final void setSchedule(Schedule schedule) {
+    this.schedule = schedule;
+  }
+  
 }
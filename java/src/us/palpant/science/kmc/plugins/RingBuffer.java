@@ -0,0 +1,135 @@
+package us.palpant.science.kmc.plugins;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import us.palpant.science.kmc.Event;
+
+/**
+ * A bounded single-producer, single-consumer queue of Events
+ * The slots are preallocated and copied into, so publishing does not
+ * allocate once the Event buffers have grown to the largest event.
+ * Each slot is either an Event, or a sample or reset, which only have a time
+ * @author palpant
+ *
+ */
+public class RingBuffer {
+
+  private static final byte EVENT = 0, SAMPLE = 1, RESET = 2;
+
+  private final Event[] slots;
+  private final byte[] kinds;
+  private final int mask;
+  /**
+   * The next slot to read, and the next slot to write
+   */
+  private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+  /**
+   * @param capacity the number of slots, rounded up to a power of two
+   */
+  public RingBuffer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Ring buffer capacity must be positive: "+capacity);
+    }
+    int n = Integer.highestOneBit(capacity);
+    if (n < capacity) {
+      n <<= 1;
+    }
+    slots = new Event[n];
+    for (int i = 0; i < n; i++) {
+      slots[i] = new Event();
+    }
+    kinds = new byte[n];
+    mask = n - 1;
+  }
+
+  /**
+   * Producer: publish a copy of an Event
+   * @param event the Event to copy
+   * @return false if the buffer is full
+   */
+  public boolean offer(Event event) {
+    long t = tail.get();
+    if (t - head.get() == slots.length) {
+      return false;
+    }
+    int i = (int) (t & mask);
+    slots[i].copy(event);
+    kinds[i] = EVENT;
+    tail.lazySet(t+1);
+    return true;
+  }
+
+  /**
+   * Producer: publish a sample
+   * @param time the time of the sample
+   * @return false if the buffer is full
+   */
+  public boolean offerSample(double time) {
+    return offerMarker(time, SAMPLE);
+  }
+
+  /**
+   * Producer: publish a reset
+   * @param time the time of the reset
+   * @return false if the buffer is full
+   */
+  public boolean offerReset(double time) {
+    return offerMarker(time, RESET);
+  }
+
+  private boolean offerMarker(double time, byte kind) {
+    long t = tail.get();
+    if (t - head.get() == slots.length) {
+      return false;
+    }
+    int i = (int) (t & mask);
+    slots[i].clear(null);
+    slots[i].setTime(time, 0);
+    kinds[i] = kind;
+    tail.lazySet(t+1);
+    return true;
+  }
+
+  /**
+   * Consumer: get the oldest slot, which stays valid until release()
+   * @return the oldest Event, or null if the buffer is empty
+   */
+  public Event peek() {
+    long h = head.get();
+    if (h == tail.get()) {
+      return null;
+    }
+    return slots[(int) (h & mask)];
+  }
+
+  /**
+   * Consumer: whether the slot returned by peek() is a sample
+   */
+  public boolean isSample() {
+    return kinds[(int) (head.get() & mask)] == SAMPLE;
+  }
+
+  /**
+   * Consumer: whether the slot returned by peek() is a reset
+   */
+  public boolean isReset() {
+    return kinds[(int) (head.get() & mask)] == RESET;
+  }
+
+  /**
+   * Consumer: release the slot returned by peek()
+   */
+  public void release() {
+    head.lazySet(head.get()+1);
+  }
+
+  public boolean isEmpty() {
+    return head.get() == tail.get();
+  }
+
+  public int capacity() {
+    return slots.length;
+  }
+
+}
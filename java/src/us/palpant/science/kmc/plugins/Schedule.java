@@ -0,0 +1,146 @@
+package us.palpant.science.kmc.plugins;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import us.palpant.Ark;
+import us.palpant.science.kmc.Checkpointable;
+
+/**
+ * When a Plugin should be sampled: at every event, every stride events
+ * starting with event first, or at the points of a fixed time grid
+ * start, start + interval, start + 2*interval, ...
+ * On a time grid, each grid point sees the state that held at that time,
+ * even when several grid points fall between two events
+ * @author palpant
+ *
+ */
+public class Schedule implements Checkpointable {
+  
+  private final long first;
+  private final long stride;
+  private final double start;
+  private final double interval;
+  
+  private long step = 0;
+  private long nextPoint = 0;
+  
+  /**
+   * Sample every stride events, starting with event first
+   */
+  public Schedule(long first, long stride) {
+    if (stride < 1) {
+      throw new IllegalArgumentException("Plugin stride must be positive: "+stride);
+    }
+    this.first = first;
+    this.stride = stride;
+    this.start = 0;
+    this.interval = 0;
+  }
+  
+  /**
+   * Sample at the fixed time points start + k*interval
+   */
+  public Schedule(double start, double interval) {
+    if (!(interval > 0)) {
+      throw new IllegalArgumentException("Plugin interval must be positive: "+interval);
+    }
+    this.first = 0;
+    this.stride = 1;
+    this.start = start;
+    this.interval = interval;
+  }
+  
+  /**
+   * Sample at every event
+   */
+  public Schedule() {
+    this(0, 1);
+  }
+  
+  /**
+   * Factory method that returns a new Schedule
+   * @param config the Ark configuration for a Plugin, with either
+   *   'interval' (and optionally 'start') for a time grid,
+   *   or 'first' and/or 'stride' to sample every stride events
+   * @return the Schedule for the Plugin
+   */
+  public static Schedule forConfig(Ark config) {
+    if (config.has("interval")) {
+      double interval = Double.parseDouble((String) config.get("interval"));
+      double start = 0;
+      if (config.has("start")) {
+        start = Double.parseDouble((String) config.get("start"));
+      }
+      return new Schedule(start, interval);
+    }
+    
+    long first = 0;
+    if (config.has("first")) {
+      first = Long.parseLong((String) config.get("first"));
+    }
+    long stride = 1;
+    if (config.has("stride")) {
+      stride = Long.parseLong((String) config.get("stride"));
+    }
+    return new Schedule(first, stride);
+  }
+  
+  /**
+   * Sample a Plugin for the interval [t, tNext), during which
+   * the Lattice does not change
+   * @param p the Plugin to sample
+   * @param t the time of the last event
+   * @param tNext the time of the next event
+   */
+  public void process(Plugin p, double t, double tNext) {
+    if (interval > 0) {
+      double point;
+      while ((point = start + nextPoint*interval) < tNext) {
+        if (point >= t) {
+          p.process(point);
+        }
+        nextPoint++;
+      }
+    } else if (step >= first && (step-first) % stride == 0) {
+      p.process(t);
+    }
+    step++;
+  }
+  
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeLong(step);
+    out.writeLong(nextPoint);
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    step = in.readLong();
+    nextPoint = in.readLong();
+  }
+  
+  /**
+   * @return the number of events that have been sampled so far
+   */
+  public long getStep() {
+    return step;
+  }
+  
+  public long getFirst() {
+    return first;
+  }
+  
+  public long getStride() {
+    return stride;
+  }
+  
+  /**
+   * @return whether the Plugin is sampled on a time grid
+   */
+  public boolean isTimeGrid() {
+    return interval > 0;
+  }
+  
+}
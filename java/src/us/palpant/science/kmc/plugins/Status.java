@@ -15,35 +15,32 @@ import us.palpant.science.kmc.geometry.Lattice;
 public class Status extends Plugin {
   
   private static final Logger log = Logger.getLogger(Status.class);
-
-  private final long first;
-  private final long stride;
-  
-  private long currentStep = 0; 
   
   public Status(Lattice lattice, Ark config) throws IOException {
     super(lattice);
-    
-    if (config.has("first")) {
-      first = Integer.parseInt((String) config.get("first"));
-    } else {
-      first = 0;
-    }
-    
-    if (config.has("stride")) {
-      stride = Integer.parseInt((String) config.get("stride"));
-    } else {
-      stride = 1;
+  }
+
+  /**
+   * Status counts events from 1, so a stride of 1000 logs after
+   * events 1000, 2000, ... rather than at events 0, 1000, ...
+   */
+  @Override
+  protected Schedule newSchedule(Ark config) {
+    Schedule schedule = Schedule.forConfig(config);
+    if (schedule.isTimeGrid()) {
+      return schedule;
     }
+    return new Schedule(schedule.getFirst()+schedule.getStride()-1, schedule.getStride());
   }
 
   @Override
   public void process(double time) {
-    currentStep++;
-    if ((currentStep > first) && ((currentStep-first) % stride == 0)) {
-      if (log.isInfoEnabled()) {
-        log.info(time+" ("+currentStep+" steps)");
+    if (log.isInfoEnabled()) {
+      long step = getSchedule().getStep();
+      if (!getSchedule().isTimeGrid()) {
+        step++;
       }
+      log.info(time+" ("+step+" steps, coverage = "+lattice.getCoverage()+")");
     }
   }
 
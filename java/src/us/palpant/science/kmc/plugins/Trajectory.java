@@ -1,8 +1,9 @@
 package us.palpant.science.kmc.plugins;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -21,37 +22,31 @@ public class Trajectory extends Plugin {
   
   private static final Logger log = Logger.getLogger(Trajectory.class);
 
+  private final Path outputFile;
   private final PrintWriter writer;
-  private final long first;
-  private final long stride;
-  
-  private long currentStep = 0; 
   
   public Trajectory(Lattice lattice, Ark config) throws IOException {
     super(lattice);
     String name = (String) config.get("name");
-    Path outputFile = Paths.get(name);
+    outputFile = Paths.get(name);
     log.info("Initializing trajectory output: "+outputFile);
-    writer = new PrintWriter(Files.newBufferedWriter(outputFile, Charset.defaultCharset()));
-
-    if (config.has("first")) {
-      first = Integer.parseInt((String) config.get("first"));
-    } else {
-      first = 0;
-    }
-    
-    if (config.has("stride")) {
-      stride = Integer.parseInt((String) config.get("stride"));
-    } else {
-      stride = 1;
-    }
+    writer = openWriter(outputFile, config);
   }
 
   @Override
   public void process(double time) {
-    if (((currentStep++) - first) % stride == 0) {
-      writer.println(time+"\t"+lattice);
-    }
+    writer.println(time+"\t"+lattice);
+  }
+
+  @Override
+  public void save(DataOutput out) throws IOException {
+    writer.flush();
+    out.writeLong(Files.size(outputFile));
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    truncate(outputFile, in.readLong());
   }
 
   @Override
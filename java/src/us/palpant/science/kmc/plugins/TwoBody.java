@@ -1,5 +1,7 @@
 package us.palpant.science.kmc.plugins;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.Charset;
@@ -20,13 +22,13 @@ import us.palpant.science.kmc.geometry.Lattice;
  * @author timpalpant
  *
  */
-public class TwoBody extends Plugin {
+public class TwoBody extends Plugin implements Mergeable<TwoBody> {
   
   private static final Logger log = Logger.getLogger(TwoBody.class);
   
   private final State state;
   private final Path outputFile;
-  private double lastTime = 0;
+  private double startTime = 0, lastTime = 0;
   private Lattice lastState;
   private double[] dist;
   
@@ -40,28 +42,66 @@ public class TwoBody extends Plugin {
 
   @Override
   public void process(double time) {
-    double dt = time - lastTime;
+    // A sample from before the last reset does not count
+    double dt = Math.max(0, time - lastTime);
     int first = -1;
     for (int i = 0; i < lastState.size(); i++) {
-      if (lastState.get(i) == state) {
+      if (lastState.getId(i) == state.getId()) {
         if (first == -1) {
           first = i;
         } else {
           dist[i-first] += dt;
         }
       }
-      lastState.set(i, lattice.get(i));
+      lastState.setId(i, lattice.getId(i));
     }
     
+    lastTime = Math.max(lastTime, time);
+  }
+  
+  @Override
+  public void reset(double time) {
+    for (int i = 0; i < dist.length; i++) {
+      dist[i] = 0;
+    }
+    startTime = time;
     lastTime = time;
   }
 
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeDouble(startTime);
+    out.writeDouble(lastTime);
+    for (int i = 0; i < dist.length; i++) {
+      out.writeDouble(dist[i]);
+    }
+    lastState.save(out);
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    startTime = in.readDouble();
+    lastTime = in.readDouble();
+    for (int i = 0; i < dist.length; i++) {
+      dist[i] = in.readDouble();
+    }
+    lastState.restore(in);
+  }
+
+  @Override
+  public void merge(TwoBody replica) {
+    for (int i = 0; i < dist.length; i++) {
+      dist[i] += replica.dist[i];
+    }
+    lastTime += replica.lastTime - replica.startTime;
+  }
+
   @Override
   public void close() throws IOException {
     log.debug("Writing distribution to output file: "+outputFile);
     try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(outputFile, Charset.defaultCharset()))) {
       for (int i = 0; i < dist.length; i++) {
-        writer.println(i+"\t"+dist[i]/lastTime);
+        writer.println(i+"\t"+dist[i]/(lastTime-startTime));
       }
     }
   }
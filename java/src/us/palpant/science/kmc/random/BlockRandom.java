@@ -0,0 +1,103 @@
+package us.palpant.science.kmc.random;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A generator of 64-bit words, whose uniform doubles are generated
+ * in blocks, so that the two draws per step are usually just a load.
+ * The state at the start of the current block is kept, so that a
+ * checkpoint can regenerate the block rather than save it.
+ * Exponential variates take their uniform from the same block, but are
+ * not precomputed, since the next draw may be either kind and the logs
+ * of the uniforms that are used as uniforms would be wasted
+ * @author palpant
+ *
+ */
+public abstract class BlockRandom extends RandomGenerator {
+  
+  private static final long serialVersionUID = 1L;
+  
+  public static final int BLOCK = 256;
+  
+  private final double[] block = new double[BLOCK];
+  private int next = BLOCK;
+  private long[] blockState;
+  
+  /**
+   * @return the next 64 random bits
+   */
+  protected abstract long nextWord();
+  
+  /**
+   * @return a copy of the state of the generator
+   */
+  protected abstract long[] getState();
+  
+  protected abstract void setState(long[] state);
+  
+  @Override
+  public void setSeed(long seed) {
+    super.setSeed(seed);
+    next = BLOCK;
+  }
+  
+  @Override
+  public long nextLong() {
+    return nextWord();
+  }
+  
+  @Override
+  protected int next(int bits) {
+    return (int) (nextWord() >>> (64 - bits));
+  }
+  
+  @Override
+  public double nextDouble() {
+    if (next == BLOCK) {
+      refill();
+    }
+    return block[next++];
+  }
+  
+  private void refill() {
+    blockState = getState();
+    for (int i = 0; i < BLOCK; i++) {
+      block[i] = (nextWord() >>> 11) * 0x1.0p-53;
+    }
+    next = 0;
+  }
+  
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeInt(next);
+    if (next < BLOCK) {
+      for (long word : blockState) {
+        out.writeLong(word);
+      }
+    }
+    for (long word : getState()) {
+      out.writeLong(word);
+    }
+  }
+  
+  @Override
+  public void restore(DataInput in) throws IOException {
+    int position = in.readInt();
+    long[] state = getState();
+    if (position < BLOCK) {
+      for (int j = 0; j < state.length; j++) {
+        state[j] = in.readLong();
+      }
+      setState(state);
+      refill();
+    }
+    next = position;
+    for (int j = 0; j < state.length; j++) {
+      state[j] = in.readLong();
+    }
+    setState(state);
+  }
+  
+}
@@ -0,0 +1,70 @@
+package us.palpant.science.kmc.random;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The same linear congruential generator as java.util.Random, which
+ * produces exactly the same numbers for the same seed, without the atomic
+ * update, and whose state can be checkpointed. It is the default, so that
+ * results do not change, but its 48-bit state is weak. Streams are seeded
+ * by mixing their index into the seed. nextGaussian is not used by the
+ * simulation, and its cached value is not saved
+ * @author palpant
+ *
+ */
+public class Lcg48 extends RandomGenerator {
+  
+  private static final long serialVersionUID = 1L;
+  
+  private static final long MULTIPLIER = 0x5DEECE66DL;
+  private static final long ADDEND = 0xBL;
+  private static final long MASK = (1L << 48) - 1;
+  
+  /**
+   * Not initialized here, since it is set by setSeed in the super constructor
+   */
+  private long state;
+  
+  public Lcg48() {
+    super();
+  }
+  
+  public Lcg48(long seed) {
+    super(seed);
+  }
+  
+  @Override
+  public void setSeed(long seed) {
+    super.setSeed(seed);
+    state = (seed ^ MULTIPLIER) & MASK;
+  }
+  
+  @Override
+  protected int next(int bits) {
+    state = (state * MULTIPLIER + ADDEND) & MASK;
+    return (int) (state >>> (48 - bits));
+  }
+  
+  @Override
+  protected RandomGenerator newStream(int stream) {
+    return new Lcg48(SplitMix64.mix(getSeed(), stream));
+  }
+  
+  @Override
+  public String getName() {
+    return "java";
+  }
+
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeLong(state);
+  }
+
+  @Override
+  public void restore(DataInput in) throws IOException {
+    state = in.readLong();
+  }
+
+}
@@ -0,0 +1,100 @@
+package us.palpant.science.kmc.random;
+
+import java.util.Random;
+
+import us.palpant.science.kmc.Checkpointable;
+
+/**
+ * A source of random numbers for the simulation
+ * Generators extend java.util.Random so that they can be used anywhere
+ * that it is, but are not synchronized, can be checkpointed, and can be
+ * split into independent streams (e.g. for replicas or domains). Each
+ * generator remembers its seed and the streams that it was split into,
+ * so that the numbers can always be traced back to the configuration
+ * @author palpant
+ *
+ */
+public abstract class RandomGenerator extends Random implements Checkpointable {
+  
+  private static final long serialVersionUID = 1L;
+  
+  /**
+   * Not initialized here, since they are set by setSeed in the super constructor
+   */
+  private long seed;
+  private String lineage;
+  
+  protected RandomGenerator() {
+    super();
+  }
+  
+  protected RandomGenerator(long seed) {
+    super(seed);
+  }
+  
+  /**
+   * Factory method that returns a new RandomGenerator
+   * @param name the name of the generator
+   * @return a new generator, with a random seed
+   */
+  public static RandomGenerator forName(String name) {
+    switch (name) {
+    case "java":
+    case "lcg48":
+      return new Lcg48();
+    case "xoshiro":
+    case "xoshiro256**":
+    case "xoshiro256starstar":
+      return new Xoshiro256StarStar();
+    case "splitmix":
+    case "splitmix64":
+      return new SplitMix64();
+    default:
+      throw new IllegalArgumentException("Unknown random number generator: "+name);
+    }
+  }
+  
+  @Override
+  public void setSeed(long seed) {
+    this.seed = seed;
+    lineage = "seed "+seed;
+  }
+  
+  /**
+   * Make an independent generator for a stream, which only depends on
+   * the seed of this generator and the index of the stream
+   * @param stream the index of the stream
+   * @return a new generator for the stream
+   */
+  public final RandomGenerator split(int stream) {
+    RandomGenerator g = newStream(stream);
+    g.lineage = lineage+", stream "+stream;
+    return g;
+  }
+  
+  protected abstract RandomGenerator newStream(int stream);
+  
+  /**
+   * @return an exponential variate with unit mean
+   */
+  public double nextExponential() {
+    return -Math.log(nextDouble());
+  }
+  
+  /**
+   * @return the name of the algorithm
+   */
+  public abstract String getName();
+  
+  public final long getSeed() {
+    return seed;
+  }
+  
+  /**
+   * @return the algorithm, the seed, and the streams that this was split from
+   */
+  public String getLineage() {
+    return getName()+" "+lineage;
+  }
+  
+}
@@ -0,0 +1,80 @@
+package us.palpant.science.kmc.random;
+
+/**
+ * The SplitMix64 generator (Steele, Lea and Flood 2014), the algorithm
+ * of java.util.SplittableRandom with a fixed gamma. Its finalizer is
+ * also used to seed the other generators and their streams
+ * @author palpant
+ *
+ */
+public class SplitMix64 extends BlockRandom {
+  
+  private static final long serialVersionUID = 1L;
+  
+  public static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+  
+  /**
+   * Not initialized here, since it is set by setSeed in the super constructor
+   */
+  private long state;
+  
+  public SplitMix64() {
+    super();
+  }
+  
+  public SplitMix64(long seed) {
+    super();
+    setSeed(seed);
+  }
+  
+  /**
+   * The SplitMix64 finalizer, which mixes the bits of z
+   */
+  public static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+  
+  /**
+   * @param seed a seed
+   * @param stream the index of a stream
+   * @return an independent seed for the stream
+   */
+  public static long mix(long seed, int stream) {
+    return mix(seed + (stream+1) * GOLDEN_GAMMA);
+  }
+  
+  @Override
+  public void setSeed(long seed) {
+    super.setSeed(seed);
+    state = seed;
+  }
+  
+  @Override
+  protected long nextWord() {
+    state += GOLDEN_GAMMA;
+    return mix(state);
+  }
+  
+  @Override
+  protected long[] getState() {
+    return new long[] { state };
+  }
+  
+  @Override
+  protected void setState(long[] state) {
+    this.state = state[0];
+  }
+  
+  @Override
+  protected RandomGenerator newStream(int stream) {
+    return new SplitMix64(mix(getSeed(), stream));
+  }
+  
+  @Override
+  public String getName() {
+    return "splitmix64";
+  }
+  
+}
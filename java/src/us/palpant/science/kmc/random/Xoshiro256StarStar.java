@@ -0,0 +1,104 @@
+package us.palpant.science.kmc.random;
+
+/**
+ * The xoshiro256** generator (Blackman and Vigna 2018), with 256 bits of
+ * state. It is seeded with SplitMix64, as its authors recommend, and
+ * stream i starts i+1 jumps of 2^128 steps after the seeded state, so
+ * streams never overlap
+ * @author palpant
+ *
+ */
+public class Xoshiro256StarStar extends BlockRandom {
+  
+  private static final long serialVersionUID = 1L;
+  
+  private static final long[] JUMP = { 0x180EC6D33CFD0ABAL, 0xD5A61266F0C9392CL, 
+    0xA9582618E03FC9AAL, 0x39ABDC4529B1661CL };
+  
+  /**
+   * Not initialized here, since they are set by setSeed in the super constructor
+   */
+  private long s0, s1, s2, s3;
+  
+  public Xoshiro256StarStar() {
+    super();
+  }
+  
+  public Xoshiro256StarStar(long seed) {
+    super();
+    setSeed(seed);
+  }
+  
+  @Override
+  public void setSeed(long seed) {
+    super.setSeed(seed);
+    long x = seed;
+    s0 = SplitMix64.mix(x += SplitMix64.GOLDEN_GAMMA);
+    s1 = SplitMix64.mix(x += SplitMix64.GOLDEN_GAMMA);
+    s2 = SplitMix64.mix(x += SplitMix64.GOLDEN_GAMMA);
+    s3 = SplitMix64.mix(x += SplitMix64.GOLDEN_GAMMA);
+  }
+  
+  @Override
+  protected long nextWord() {
+    long result = Long.rotateLeft(s1 * 5, 7) * 9;
+    long t = s1 << 17;
+    s2 ^= s0;
+    s3 ^= s1;
+    s1 ^= s2;
+    s0 ^= s3;
+    s2 ^= t;
+    s3 = Long.rotateLeft(s3, 45);
+    return result;
+  }
+  
+  /**
+   * Advance the state by 2^128 steps
+   */
+  public void jump() {
+    long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+    for (long jump : JUMP) {
+      for (int b = 0; b < 64; b++) {
+        if ((jump & (1L << b)) != 0) {
+          t0 ^= s0;
+          t1 ^= s1;
+          t2 ^= s2;
+          t3 ^= s3;
+        }
+        nextWord();
+      }
+    }
+    s0 = t0;
+    s1 = t1;
+    s2 = t2;
+    s3 = t3;
+  }
+  
+  @Override
+  protected long[] getState() {
+    return new long[] { s0, s1, s2, s3 };
+  }
+  
+  @Override
+  protected void setState(long[] state) {
+    s0 = state[0];
+    s1 = state[1];
+    s2 = state[2];
+    s3 = state[3];
+  }
+  
+  @Override
+  protected RandomGenerator newStream(int stream) {
+    Xoshiro256StarStar g = new Xoshiro256StarStar(getSeed());
+    for (int j = 0; j <= stream; j++) {
+      g.jump();
+    }
+    return g;
+  }
+  
+  @Override
+  public String getName() {
+    return "xoshiro256**";
+  }
+  
+}
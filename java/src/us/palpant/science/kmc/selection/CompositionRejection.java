@@ -0,0 +1,252 @@
+package us.palpant.science.kmc.selection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import us.palpant.science.kmc.Checkpointable;
+import us.palpant.science.kmc.random.SplitMix64;
+
+/**
+ * Composition-rejection selection
+ * Indices are grouped into classes of rates in [2^k, 2^(k+1)),
+ * a class is chosen by its total rate, and then a member of the class
+ * is chosen uniformly and accepted with probability rate / 2^(k+1)
+ *
+ * Since every member of a class is accepted with probability at least 1/2,
+ * both update and select are O(1) in the number of indices
+ * (and linear in the number of distinct classes, which is small)
+ *
+ * @author palpant
+ *
+ */
+public class CompositionRejection extends Selector implements Checkpointable {
+
+  /**
+   * The number of updates between full recomputations of the class sums,
+   * which otherwise slowly accumulate round-off error
+   */
+  private static final int RESUM_INTERVAL = 1 << 20;
+
+  private final double[] rates;
+  private final int[] positions;
+  private final List<RateClass> classes = new ArrayList<>();
+  private double total = 0;
+  private int nUpdates = 0;
+
+  public CompositionRejection(int size) {
+    rates = new double[size];
+    positions = new int[size];
+  }
+
+  @Override
+  public void update(int i, double rate) {
+    double old = rates[i];
+    if (old == rate) {
+      return;
+    }
+
+    RateClass oldClass = (old > 0) ? getClass(old) : null;
+    RateClass newClass = (rate > 0) ? getClass(rate) : null;
+    rates[i] = rate;
+    if (oldClass == newClass) {
+      oldClass.sum += rate - old;
+    } else {
+      if (oldClass != null) {
+        oldClass.remove(i, old);
+      }
+      if (newClass != null) {
+        newClass.add(i, rate);
+      }
+    }
+
+    if (++nUpdates == RESUM_INTERVAL) {
+      resum();
+    } else {
+      updateTotal();
+    }
+  }
+
+  @Override
+  public void setAll(double[] rates) {
+    for (RateClass c : classes) {
+      c.size = 0;
+      c.sum = 0;
+    }
+    Arrays.fill(this.rates, 0);
+    for (int i = 0; i < rates.length; i++) {
+      if (rates[i] > 0) {
+        this.rates[i] = rates[i];
+        getClass(rates[i]).add(i, rates[i]);
+      }
+    }
+    resum();
+  }
+
+  @Override
+  public int select(double r) {
+    // Composition: choose a class by its total rate
+    double x = r * total;
+    RateClass selected = null;
+    for (RateClass c : classes) {
+      if (c.size == 0) {
+        continue;
+      }
+      selected = c;
+      if (x < c.sum) {
+        break;
+      }
+      x -= c.sum;
+    }
+    if (selected == null) {
+      throw new IllegalStateException("Cannot select from a set of zero rates");
+    }
+
+    // Rejection: choose a member uniformly and accept it with probability rate/max
+    // The first attempt reuses the remaining randomness in r, and retries
+    // are drawn from a SplitMix64 sequence seeded with r
+    double u = Math.min(x / selected.sum, Math.nextAfter(1.0, 0));
+    long state = Double.doubleToLongBits(r);
+    while (true) {
+      double v = u * selected.size;
+      int k = (int) v;
+      int i = selected.members[k];
+      if ((v - k) * selected.max < rates[i]) {
+        return i;
+      }
+
+      state += SplitMix64.GOLDEN_GAMMA;
+      u = (SplitMix64.mix(state) >>> 11) * 0x1.0p-53;
+    }
+  }
+
+  @Override
+  public double getTotal() {
+    return total;
+  }
+
+  @Override
+  public int size() {
+    return rates.length;
+  }
+
+  /**
+   * Get (or create) the class that a rate belongs to
+   * @param rate a positive rate
+   * @return the RateClass of rate
+   */
+  private RateClass getClass(double rate) {
+    int exponent = Math.getExponent(rate);
+    for (RateClass c : classes) {
+      if (c.exponent == exponent) {
+        return c;
+      }
+    }
+
+    RateClass c = new RateClass(exponent);
+    classes.add(c);
+    return c;
+  }
+
+  /**
+   * The order of the classes and of their members, and their running sums,
+   * depend on the history of updates, so they are saved
+   */
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeInt(classes.size());
+    for (RateClass c : classes) {
+      out.writeInt(c.exponent);
+      out.writeDouble(c.sum);
+      out.writeInt(c.size);
+      for (int k = 0; k < c.size; k++) {
+        out.writeInt(c.members[k]);
+      }
+    }
+    out.writeDouble(total);
+    out.writeInt(nUpdates);
+  }
+
+  @Override
+  public void restore(DataInput in) throws IOException {
+    classes.clear();
+    int n = in.readInt();
+    for (int j = 0; j < n; j++) {
+      RateClass c = new RateClass(in.readInt());
+      double sum = in.readDouble();
+      int size = in.readInt();
+      for (int k = 0; k < size; k++) {
+        int i = in.readInt();
+        c.add(i, rates[i]);
+      }
+      c.sum = sum;
+      classes.add(c);
+    }
+    total = in.readDouble();
+    nUpdates = in.readInt();
+  }
+
+  private void updateTotal() {
+    total = 0;
+    for (RateClass c : classes) {
+      total += c.sum;
+    }
+  }
+
+  /**
+   * Recompute all class sums from the rates of their members
+   */
+  private void resum() {
+    for (RateClass c : classes) {
+      c.sum = 0;
+      for (int k = 0; k < c.size; k++) {
+        c.sum += rates[c.members[k]];
+      }
+    }
+    updateTotal();
+    nUpdates = 0;
+  }
+
+  /**
+   * The indices with rates in [2^exponent, 2^(exponent+1))
+   */
+  private final class RateClass {
+
+    private final int exponent;
+    private final double max;
+    private int[] members = new int[16];
+    private int size = 0;
+    private double sum = 0;
+
+    private RateClass(int exponent) {
+      this.exponent = exponent;
+      max = Math.scalb(1.0, exponent+1);
+    }
+
+    private void add(int i, double rate) {
+      if (size == members.length) {
+        members = Arrays.copyOf(members, 2*size);
+      }
+      positions[i] = size;
+      members[size++] = i;
+      sum += rate;
+    }
+
+    /**
+     * Remove an index by swapping the last member into its place
+     */
+    private void remove(int i, double rate) {
+      int last = members[--size];
+      members[positions[i]] = last;
+      positions[last] = positions[i];
+      // An empty class must not keep the round-off of its updates,
+      // so that the total is exactly 0 when every rate is 0
+      sum = (size == 0) ? 0 : sum - rate;
+    }
+
+  }
+
+}
@@ -0,0 +1,160 @@
+package us.palpant.science.kmc.selection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import us.palpant.science.kmc.Checkpointable;
+
+/**
+ * An indexed binary min-heap of keys for the indices [0, size)
+ * Each index can be in the heap at most once, and its key can be
+ * changed or removed in O(log n) by index
+ * @author palpant
+ *
+ */
+public class IndexedHeap implements Checkpointable {
+
+  private final double[] keys;
+  private final int[] heap;
+  private final int[] positions;
+  private int n = 0;
+
+  public IndexedHeap(int size) {
+    keys = new double[size];
+    heap = new int[size];
+    positions = new int[size];
+    Arrays.fill(positions, -1);
+  }
+
+  /**
+   * Insert an index, or change its key if it is already in the heap
+   * @param i the index
+   * @param key the new key of i
+   */
+  public void update(int i, double key) {
+    if (!contains(i)) {
+      keys[i] = key;
+      positions[i] = n;
+      heap[n++] = i;
+      siftUp(positions[i]);
+    } else {
+      double old = keys[i];
+      keys[i] = key;
+      if (key < old) {
+        siftUp(positions[i]);
+      } else {
+        siftDown(positions[i]);
+      }
+    }
+  }
+
+  /**
+   * Remove an index from the heap, if it is present
+   * @param i the index
+   */
+  public void remove(int i) {
+    int pos = positions[i];
+    if (pos < 0) {
+      return;
+    }
+
+    positions[i] = -1;
+    int last = heap[--n];
+    if (pos < n) {
+      heap[pos] = last;
+      positions[last] = pos;
+      siftUp(pos);
+      siftDown(positions[last]);
+    }
+  }
+
+  public boolean contains(int i) {
+    return positions[i] >= 0;
+  }
+
+  /**
+   * @return the index with the smallest key
+   */
+  public int peek() {
+    if (n == 0) {
+      throw new IllegalStateException("Heap is empty");
+    }
+    return heap[0];
+  }
+
+  public double getKey(int i) {
+    return keys[i];
+  }
+
+  public boolean isEmpty() {
+    return n == 0;
+  }
+
+  public int size() {
+    return n;
+  }
+
+  /**
+   * The layout of the heap is saved, so that ties are broken the same way
+   */
+  @Override
+  public void save(DataOutput out) throws IOException {
+    out.writeInt(n);
+    for (int pos = 0; pos < n; pos++) {
+      out.writeInt(heap[pos]);
+      out.writeDouble(keys[heap[pos]]);
+    }
+  }
+
+  @Override
+  public void restore(DataInput in) throws IOException {
+    Arrays.fill(positions, -1);
+    n = in.readInt();
+    for (int pos = 0; pos < n; pos++) {
+      int i = in.readInt();
+      heap[pos] = i;
+      positions[i] = pos;
+      keys[i] = in.readDouble();
+    }
+  }
+
+  private void siftUp(int pos) {
+    int i = heap[pos];
+    while (pos > 0) {
+      int parent = (pos-1) >>> 1;
+      if (keys[heap[parent]] <= keys[i]) {
+        break;
+      }
+      move(heap[parent], pos);
+      pos = parent;
+    }
+    move(i, pos);
+  }
+
+  private void siftDown(int pos) {
+    int i = heap[pos];
+    while (true) {
+      int child = 2*pos + 1;
+      if (child >= n) {
+        break;
+      }
+      if (child+1 < n && keys[heap[child+1]] < keys[heap[child]]) {
+        child++;
+      }
+      if (keys[i] <= keys[heap[child]]) {
+        break;
+      }
+      move(heap[child], pos);
+      pos = child;
+    }
+    move(i, pos);
+  }
+
+  private void move(int i, int pos) {
+    heap[pos] = i;
+    positions[i] = pos;
+  }
+
+}
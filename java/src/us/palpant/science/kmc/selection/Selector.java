@@ -0,0 +1,57 @@
+package us.palpant.science.kmc.selection;
+
+/**
+ * Selects an index with probability proportional to its rate
+ * The TransitionManager keeps one rate per Transition in a Selector
+ * and uses it to choose the next Transition to perform
+ * @author palpant
+ *
+ */
+public abstract class Selector {
+  
+  /**
+   * Factory method that returns a new Selector
+   * @param name the name of the selection algorithm
+   * @param size the number of rates to manage
+   * @return a new Selector with all rates set to 0
+   */
+  public static Selector forName(String name, int size) {
+    switch (name) {
+    case "sumtree":
+      return new SumTree(size);
+    case "composition":
+      return new CompositionRejection(size);
+    default:
+      throw new IllegalArgumentException("Unknown selector: "+name);
+    }
+  }
+  
+  /**
+   * Set the rate of an index
+   * @param i the index to update
+   * @param rate the new rate of i
+   */
+  public abstract void update(int i, double rate);
+  
+  /**
+   * Set all rates at once
+   * @param rates the new rates
+   */
+  public abstract void setAll(double[] rates);
+  
+  /**
+   * Select an index corresponding to r \in [0,1)
+   * Indices with zero rate are never selected
+   * @param r a uniform random number
+   * @return the selected index
+   */
+  public abstract int select(double r);
+  
+  /**
+   * @return the sum of all rates
+   */
+  public abstract double getTotal();
+  
+  public abstract int size();
+
+}
@@ -0,0 +1,111 @@
+package us.palpant.science.kmc.selection;
+
+import java.util.Arrays;
+
+/**
+ * A binary sum tree over a fixed number of non-negative weights
+ * Updating a weight and selecting an index by cumulative weight
+ * are both O(log n), so there is no prefix sum to rebuild
+ * @author palpant
+ *
+ */
+public class SumTree extends Selector {
+
+  private final int size;
+  private final int leaves;
+  private final double[] tree;
+
+  public SumTree(int size) {
+    this.size = size;
+    int n = 1;
+    while (n < size) {
+      n <<= 1;
+    }
+    leaves = n;
+    tree = new double[2*leaves];
+  }
+
+  /**
+   * Set the weight of an index
+   * @param i the index to update
+   * @param weight the new weight of i
+   */
+  @Override
+  public void update(int i, double weight) {
+    int node = leaves + i;
+    tree[node] = weight;
+    // Recompute parents from their children rather than adding a delta,
+    // so that round-off does not accumulate over many updates
+    for (node >>>= 1; node > 0; node >>>= 1) {
+      tree[node] = tree[2*node] + tree[2*node+1];
+    }
+  }
+
+  /**
+   * Set all weights at once in O(n)
+   * @param weights the new weights
+   */
+  @Override
+  public void setAll(double[] weights) {
+    Arrays.fill(tree, 0);
+    System.arraycopy(weights, 0, tree, leaves, size);
+    for (int node = leaves-1; node > 0; node--) {
+      tree[node] = tree[2*node] + tree[2*node+1];
+    }
+  }
+
+  public double get(int i) {
+    return tree[leaves+i];
+  }
+
+  @Override
+  public int select(double r) {
+    return find(r*getTotal());
+  }
+
+  /**
+   * Find the index whose cumulative weight interval contains x
+   * Indices with zero weight are never selected
+   * @param x a value in [0, getTotal())
+   * @return the selected index
+   */
+  public int find(double x) {
+    int node = 1;
+    while (node < leaves) {
+      int left = 2*node;
+      if (x < tree[left] || tree[left+1] == 0) {
+        node = left;
+      } else {
+        x -= tree[left];
+        node = left + 1;
+      }
+    }
+
+    return node - leaves;
+  }
+
+  /**
+   * @param i an index
+   * @return the sum of the weights of all indices before i
+   */
+  public double getPrefix(int i) {
+    double sum = 0;
+    for (int node = leaves + i; node > 1; node >>>= 1) {
+      if ((node & 1) == 1) {
+        sum += tree[node-1];
+      }
+    }
+    return sum;
+  }
+
+  @Override
+  public double getTotal() {
+    return tree[1];
+  }
+
+  @Override
+  public final int size() {
+    return size;
+  }
+
+}
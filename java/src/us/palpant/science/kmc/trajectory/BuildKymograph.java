@@ -0,0 +1,55 @@
+package us.palpant.science.kmc.trajectory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.apache.log4j.Logger;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Build a Kymograph pyramid from a binary trajectory
+ * @author palpant
+ *
+ */
+public class BuildKymograph {
+  
+  private static final Logger log = Logger.getLogger(BuildKymograph.class);
+  
+  @Parameter(names = { "-i", "--input" }, description = "Input binary trajectory", required = true)
+  public String inputFile;
+  @Parameter(names = { "-o", "--output" }, description = "Output kymograph", required = true)
+  public String outputFile;
+  @Parameter(names = { "-s", "--sites" }, description = "Sites per column at full resolution (default: at most 65536 columns)")
+  public int sitesPerColumn = 0;
+  @Parameter(names = { "-r", "--rows" }, description = "Time points at full resolution")
+  public int rows = 4096;
+  @Parameter(names = { "--tile" }, description = "Tile size")
+  public int tile = 256;
+  
+  public void run() throws IOException {
+    try (TrajectoryReader reader = new TrajectoryReader(Paths.get(inputFile))) {
+      log.info("Building kymograph of "+reader.size()+" sites from "+reader.getStartTime()
+          +" to "+reader.getEndTime());
+      KymographWriter.build(reader, Paths.get(outputFile), sitesPerColumn, rows, tile);
+    }
+  }
+  
+  public static void main(String[] args) throws IOException {
+    BuildKymograph app = new BuildKymograph();
+    JCommander jc = new JCommander(app);
+    jc.setProgramName("BuildKymograph");
+    try {
+      jc.parse(args);
+    } catch (ParameterException e) {
+      System.err.println(e.getMessage());
+      jc.usage();
+      System.exit(-1);
+    }
+    
+    app.run();
+  }
+  
+}
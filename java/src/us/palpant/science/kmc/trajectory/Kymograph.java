@@ -0,0 +1,238 @@
+package us.palpant.science.kmc.trajectory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A multi-resolution pyramid of the occupancy of a trajectory
+ * over time (rows) and position (columns)
+ * 
+ * Level 0 has one row per timePerRow and one column per sitesPerColumn,
+ * and each cell is the fraction of the time and sites in it that are
+ * not empty. Each higher level averages 2x2 cells of the level below,
+ * up to a level that fits in a single tile. Each level is stored in
+ * square tiles, so any view only needs to read the tiles that it covers.
+ * All numbers are big-endian.
+ * 
+ * <pre>
+ * header:
+ *   magic           4 bytes  "KMCK"
+ *   version         u16      1
+ *   tile            u16      number of rows and columns in a tile
+ *   sites           i32      number of sites in the lattice
+ *   sitesPerColumn  i32
+ *   startTime       f64
+ *   timePerRow      f64
+ *   nLevels         u16
+ *   levels          nLevels * (width i32, height i32), in cells
+ * tiles:
+ *   tile*tile bytes each, row by row, with the occupancy of each cell
+ *   scaled to 0-255 (cells past the edge of the level are 0)
+ * index:
+ *   for each level, tile row and tile column, the offset of the tile (i64)
+ * footer:
+ *   offset          i64      offset of the index
+ *   magic           4 bytes  "KMCK"
+ * </pre>
+ * @author palpant
+ *
+ */
+public class Kymograph implements Closeable {
+  
+  public static final byte[] MAGIC = { 'K', 'M', 'C', 'K' };
+  public static final int VERSION = 1;
+  public static final int FOOTER_SIZE = 12;
+  
+  private static final long SEGMENT = 1L << 30;
+  
+  private final FileChannel channel;
+  private final MappedByteBuffer[] segments;
+  private final int tile;
+  private final int sites;
+  private final int sitesPerColumn;
+  private final double startTime;
+  private final double timePerRow;
+  private final int[] widths, heights;
+  private final long[][] offsets;
+  
+  /**
+   * Open a kymograph pyramid
+   * @param path the file to read
+   * @throws IOException if the file is not a valid kymograph
+   */
+  public Kymograph(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    long length = channel.size();
+    
+    ByteBuffer header = read(0, (int) Math.min(length, 34));
+    if (header.remaining() < 34 || !matches(header, 0)) {
+      throw new IOException("Not a kymograph: "+path);
+    }
+    int version = header.getShort(4) & 0xFFFF;
+    if (version != VERSION) {
+      throw new IOException("Unknown kymograph version "+version+": "+path);
+    }
+    tile = header.getShort(6) & 0xFFFF;
+    sites = header.getInt(8);
+    sitesPerColumn = header.getInt(12);
+    startTime = header.getDouble(16);
+    timePerRow = header.getDouble(24);
+    int nLevels = header.getShort(32) & 0xFFFF;
+    
+    ByteBuffer levels = read(34, 8*nLevels);
+    widths = new int[nLevels];
+    heights = new int[nLevels];
+    for (int l = 0; l < nLevels; l++) {
+      widths[l] = levels.getInt(8*l);
+      heights[l] = levels.getInt(8*l+4);
+    }
+    
+    ByteBuffer footer = read(length - FOOTER_SIZE, FOOTER_SIZE);
+    if (!matches(footer, 8)) {
+      throw new IOException("Kymograph does not have an index: "+path);
+    }
+    long indexOffset = footer.getLong(0);
+    offsets = new long[nLevels][];
+    long p = indexOffset;
+    for (int l = 0; l < nLevels; l++) {
+      int n = getTileRows(l) * getTileColumns(l);
+      ByteBuffer index = read(p, 8*n);
+      offsets[l] = new long[n];
+      for (int k = 0; k < n; k++) {
+        offsets[l][k] = index.getLong(8*k);
+      }
+      p += 8*n;
+    }
+    
+    // Overlap the segments by a tile, so that every tile is in one segment
+    long tileSize = (long) tile * tile;
+    int nSegments = (int) Math.max(1, (length + SEGMENT - 1) / SEGMENT);
+    segments = new MappedByteBuffer[nSegments];
+    for (int k = 0; k < nSegments; k++) {
+      long offset = k * SEGMENT;
+      segments[k] = channel.map(FileChannel.MapMode.READ_ONLY, offset, 
+          Math.min(SEGMENT + tileSize, length - offset));
+    }
+  }
+  
+  private ByteBuffer read(long offset, int n) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(n);
+    while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) { }
+    buffer.flip();
+    return buffer;
+  }
+  
+  private static boolean matches(ByteBuffer buffer, int offset) {
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (buffer.get(offset+i) != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * @param level a level of the pyramid
+   * @param row a row of the level
+   * @param column a column of the level
+   * @return the occupancy of the cell, scaled to 0-255
+   */
+  public int get(int level, int row, int column) {
+    if (row < 0 || row >= heights[level] || column < 0 || column >= widths[level]) {
+      return 0;
+    }
+    long offset = offsets[level][(row / tile) * getTileColumns(level) + column / tile]
+        + (row % tile) * tile + column % tile;
+    return segments[(int) (offset / SEGMENT)].get((int) (offset % SEGMENT)) & 0xFF;
+  }
+  
+  /**
+   * @param level a level of the pyramid
+   * @param t a time
+   * @return the row of level that contains t
+   */
+  public int getRow(int level, double t) {
+    return (int) Math.floor((t - startTime) / (timePerRow * (1 << level)));
+  }
+  
+  /**
+   * @param level a level of the pyramid
+   * @param site a coordinate of the lattice
+   * @return the column of level that contains site
+   */
+  public int getColumn(int level, double site) {
+    return (int) Math.floor(site / ((long) sitesPerColumn << level));
+  }
+  
+  /**
+   * @param sitesPerPixel the number of sites in a pixel
+   * @param timePerPixel the time in a pixel
+   * @return the coarsest level whose cells are no larger than a pixel
+   */
+  public int getLevel(double sitesPerPixel, double timePerPixel) {
+    int level = 0;
+    while (level < getNumLevels()-1 && sitesPerColumn * (2L << level) <= sitesPerPixel
+        && timePerRow * (2L << level) <= timePerPixel) {
+      level++;
+    }
+    return level;
+  }
+  
+  public int getNumLevels() {
+    return widths.length;
+  }
+  
+  public int getWidth(int level) {
+    return widths[level];
+  }
+  
+  public int getHeight(int level) {
+    return heights[level];
+  }
+  
+  public int getTileRows(int level) {
+    return (heights[level] + tile - 1) / tile;
+  }
+  
+  public int getTileColumns(int level) {
+    return (widths[level] + tile - 1) / tile;
+  }
+  
+  public int getTileSize() {
+    return tile;
+  }
+  
+  public int getNumSites() {
+    return sites;
+  }
+  
+  public int getSitesPerColumn() {
+    return sitesPerColumn;
+  }
+  
+  public double getStartTime() {
+    return startTime;
+  }
+  
+  public double getTimePerRow() {
+    return timePerRow;
+  }
+  
+  /**
+   * @return the time at the end of the last row of level 0
+   */
+  public double getEndTime() {
+    return startTime + heights[0] * timePerRow;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+  
+}
@@ -0,0 +1,313 @@
+package us.palpant.science.kmc.trajectory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * Build a Kymograph pyramid from the rows of level 0, in order
+ * Each level only buffers one strip of tiles and one row for the level
+ * above it, so memory does not depend on the length of the trajectory.
+ * A strip is tile rows of the whole width of level 0, so the width is
+ * limited to MAX_COLUMNS by default (a 16 MB strip with 256-pixel tiles)
+ * @author palpant
+ *
+ */
+public class KymographWriter implements Closeable {
+  
+  /**
+   * The default maximum number of columns in level 0
+   */
+  public static final int MAX_COLUMNS = 1 << 16;
+  
+  private final FileChannel channel;
+  private final int tile;
+  private final Level[] levels;
+  
+  /**
+   * One level of the pyramid while it is being written
+   */
+  private class Level {
+    private final int index;
+    private final int width, height;
+    private final int tileColumns;
+    private final byte[] strip;
+    private final long[] offsets;
+    private int rows = 0;
+    /**
+     * The sums of the cells of the next row of the level above
+     */
+    private final float[] sums;
+    private final int[] counts;
+    private int pending = 0;
+    
+    private Level(int index, int width, int height) {
+      this.index = index;
+      this.width = width;
+      this.height = height;
+      tileColumns = (width + tile - 1) / tile;
+      strip = new byte[tile * tileColumns * tile];
+      offsets = new long[((height + tile - 1) / tile) * tileColumns];
+      sums = new float[(width + 1) / 2];
+      counts = new int[sums.length];
+    }
+    
+    private void add(float[] row) throws IOException {
+      if (rows == height) {
+        throw new IllegalStateException("Too many rows for level "+index);
+      }
+      int offset = (rows % tile) * tile * tileColumns;
+      for (int c = 0; c < width; c++) {
+        strip[offset+c] = (byte) Math.round(255 * Math.max(0, Math.min(1, row[c])));
+        sums[c/2] += row[c];
+        counts[c/2]++;
+      }
+      pending++;
+      
+      if (++rows % tile == 0) {
+        writeStrip();
+      }
+      if (pending == 2) {
+        emit();
+      }
+    }
+    
+    /**
+     * Pass the averaged row up to the next level
+     */
+    private void emit() throws IOException {
+      if (index+1 < levels.length) {
+        float[] row = new float[sums.length];
+        for (int c = 0; c < row.length; c++) {
+          row[c] = sums[c] / counts[c];
+        }
+        levels[index+1].add(row);
+      }
+      Arrays.fill(sums, 0);
+      Arrays.fill(counts, 0);
+      pending = 0;
+    }
+    
+    private void writeStrip() throws IOException {
+      int tileRow = (rows - 1) / tile;
+      ByteBuffer buffer = ByteBuffer.allocate(tile * tile);
+      for (int tc = 0; tc < tileColumns; tc++) {
+        buffer.clear();
+        for (int r = 0; r < tile; r++) {
+          buffer.put(strip, r * tile * tileColumns + tc * tile, tile);
+        }
+        buffer.flip();
+        offsets[tileRow * tileColumns + tc] = channel.position();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+      Arrays.fill(strip, (byte) 0);
+    }
+    
+    private void finish() throws IOException {
+      if (rows % tile != 0) {
+        writeStrip();
+      }
+      if (pending > 0) {
+        emit();
+      }
+    }
+  }
+  
+  /**
+   * Create a new pyramid and write its header
+   * @param path the file to write
+   * @param tile the number of rows and columns in a tile
+   * @param sites the number of sites in the lattice
+   * @param sitesPerColumn the number of sites in each column of level 0
+   * @param startTime the time at the start of the first row
+   * @param timePerRow the time in each row of level 0
+   * @param rows the number of rows in level 0
+   * @throws IOException
+   */
+  public KymographWriter(Path path, int tile, int sites, int sitesPerColumn, 
+                         double startTime, double timePerRow, int rows) throws IOException {
+    if (tile < 1 || tile > 0xFFFF || sitesPerColumn < 1 || rows < 1) {
+      throw new IllegalArgumentException("Invalid kymograph dimensions");
+    }
+    this.tile = tile;
+    
+    List<int[]> sizes = new ArrayList<>();
+    int width = (sites + sitesPerColumn - 1) / sitesPerColumn, height = rows;
+    if ((long) tile * tile * ((width + tile - 1) / tile) > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Kymograph is too wide for one strip of tiles: "
+          +width+" columns, use more sites per column");
+    }
+    sizes.add(new int[] { width, height });
+    while (width > tile || height > tile) {
+      width = (width + 1) / 2;
+      height = (height + 1) / 2;
+      sizes.add(new int[] { width, height });
+    }
+    levels = new Level[sizes.size()];
+    for (int l = 0; l < levels.length; l++) {
+      levels[l] = new Level(l, sizes.get(l)[0], sizes.get(l)[1]);
+    }
+    
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, 
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    ByteBuffer header = ByteBuffer.allocate(34 + 8*levels.length);
+    header.put(Kymograph.MAGIC);
+    header.putShort((short) Kymograph.VERSION);
+    header.putShort((short) tile);
+    header.putInt(sites);
+    header.putInt(sitesPerColumn);
+    header.putDouble(startTime);
+    header.putDouble(timePerRow);
+    header.putShort((short) levels.length);
+    for (Level level : levels) {
+      header.putInt(level.width);
+      header.putInt(level.height);
+    }
+    header.flip();
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+  }
+  
+  /**
+   * Add the next row of level 0
+   * @param occupancy the occupancy of each column, in [0,1]
+   * @throws IOException
+   */
+  public void addRow(float[] occupancy) throws IOException {
+    levels[0].add(occupancy);
+  }
+  
+  /**
+   * Finish every level, and write the index and footer
+   */
+  @Override
+  public void close() throws IOException {
+    for (Level level : levels) {
+      level.finish();
+    }
+    
+    long indexOffset = channel.position();
+    int n = 0;
+    for (Level level : levels) {
+      n += level.offsets.length;
+    }
+    ByteBuffer index = ByteBuffer.allocate(8*n + Kymograph.FOOTER_SIZE);
+    for (Level level : levels) {
+      for (long offset : level.offsets) {
+        index.putLong(offset);
+      }
+    }
+    index.putLong(indexOffset);
+    index.put(Kymograph.MAGIC);
+    index.flip();
+    while (index.hasRemaining()) {
+      channel.write(index);
+    }
+    channel.close();
+  }
+  
+  /**
+   * @param sites the number of sites in the lattice
+   * @return the fewest sites per column that give at most MAX_COLUMNS columns
+   */
+  public static int getDefaultSitesPerColumn(int sites) {
+    return Math.max(1, (sites + MAX_COLUMNS - 1) / MAX_COLUMNS);
+  }
+  
+  /**
+   * Build a kymograph from a trajectory in a single pass
+   * The occupancy of each column is integrated over each row exactly,
+   * by accumulating it whenever a site in the column changes
+   * @param reader the trajectory
+   * @param output the file to write the kymograph to
+   * @param sitesPerColumn the number of sites in each column of level 0,
+   *   or 0 for the default for the size of the lattice
+   * @param rows the number of rows in level 0
+   * @param tile the number of rows and columns in a tile
+   * @throws IOException
+   */
+  public static void build(TrajectoryReader reader, Path output, int sitesPerColumn, 
+                           int rows, int tile) throws IOException {
+    int empty = reader.getStateNames().indexOf("empty");
+    if (empty < 0) {
+      throw new IOException("Trajectory does not have an empty state");
+    }
+    
+    reader.rewind();
+    double startTime = reader.getStartTime();
+    double timePerRow = (reader.getEndTime() - startTime) / rows;
+    if (!(timePerRow > 0)) {
+      timePerRow = 1;
+    }
+    
+    Lattice lattice = reader.getLattice();
+    if (sitesPerColumn < 1) {
+      sitesPerColumn = getDefaultSitesPerColumn(lattice.size());
+    }
+    int columns = (lattice.size() + sitesPerColumn - 1) / sitesPerColumn;
+    int[] occupied = new int[columns];
+    double[] integral = new double[columns];
+    double[] last = new double[columns];
+    float[] row = new float[columns];
+    for (int i = 0; i < lattice.size(); i++) {
+      if (lattice.getId(i) != empty) {
+        occupied[i / sitesPerColumn]++;
+      }
+    }
+    Arrays.fill(last, startTime);
+    
+    try (KymographWriter writer = new KymographWriter(output, tile, lattice.size(), 
+        sitesPerColumn, startTime, timePerRow, rows)) {
+      int r = 0;
+      while (reader.next()) {
+        double time = reader.getTime();
+        while (r < rows-1 && time >= startTime + (r+1)*timePerRow) {
+          writeRow(writer, startTime + (r+1)*timePerRow, timePerRow, sitesPerColumn,
+              lattice.size(), occupied, integral, last, row);
+          r++;
+        }
+        
+        for (int j = 0; j < reader.getNumChanges(); j++) {
+          boolean was = (reader.getChangeOldState(j) != empty);
+          boolean is = (reader.getChangeNewState(j) != empty);
+          if (was != is) {
+            int c = reader.getChangeCoord(j) / sitesPerColumn;
+            integral[c] += occupied[c] * (time - last[c]);
+            last[c] = time;
+            occupied[c] += is ? 1 : -1;
+          }
+        }
+      }
+      
+      for (; r < rows; r++) {
+        writeRow(writer, startTime + (r+1)*timePerRow, timePerRow, sitesPerColumn,
+            lattice.size(), occupied, integral, last, row);
+      }
+    }
+  }
+  
+  private static void writeRow(KymographWriter writer, double end, double timePerRow, 
+                               int sitesPerColumn, int sites, int[] occupied, 
+                               double[] integral, double[] last, float[] row) throws IOException {
+    for (int c = 0; c < row.length; c++) {
+      integral[c] += occupied[c] * (end - last[c]);
+      int n = Math.min(sitesPerColumn, sites - c*sitesPerColumn);
+      row[c] = (float) (integral[c] / (timePerRow * n));
+      integral[c] = 0;
+      last[c] = end;
+    }
+    writer.addRow(row);
+  }
+  
+}
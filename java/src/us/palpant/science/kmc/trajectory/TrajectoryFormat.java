@@ -0,0 +1,65 @@
+package us.palpant.science.kmc.trajectory;
+
+/**
+ * The binary trajectory format
+ * 
+ * A trajectory is a log of every event, with a full keyframe of the
+ * Lattice every so often and an index of the keyframes at the end, so that
+ * the state at any time can be found by seeking to the last keyframe
+ * before it and replaying the events after it.
+ * All numbers are big-endian, and strings are a u16 length followed
+ * by that many bytes of UTF-8.
+ * 
+ * <pre>
+ * header:
+ *   magic       4 bytes  "KMCT"
+ *   version     u16      2
+ *   size        i32      number of sites in the lattice
+ *   boundary    u8       0 = fixed, 1 = periodic
+ *   nStates     u16      number of States
+ *   names       string * nStates, the name of the State with each id
+ *   rng         string   the random number generator and the seed and
+ *                        streams that it came from (empty if unknown;
+ *                        absent in version 1)
+ * records, each starting with a u8 tag:
+ *   KEYFRAME  1  time f64, then size bytes with the State id of each site
+ *   EVENT     2  time f64, transition u16, nChanges u16,
+ *                then nChanges * (coord i32, old state u8, new state u8)
+ *   NAME      3  id u16, name string: defines a transition name, and
+ *                always comes before the first EVENT that uses it
+ *   INDEX     4  nKeyframes i32, then nKeyframes * (time f64,
+ *                offset i64 of the KEYFRAME record, number of events
+ *                before the keyframe i64)
+ * footer:
+ *   offset      i64      offset of the INDEX record
+ *   magic       4 bytes  "KMCI"
+ * </pre>
+ * 
+ * The first record is a KEYFRAME at time 0, and the last KEYFRAME is the
+ * state after the last event. A file without a footer was not closed
+ * properly, but can still be read sequentially up to the last whole record
+ * @author palpant
+ *
+ */
+public final class TrajectoryFormat {
+
+  public static final byte[] MAGIC = { 'K', 'M', 'C', 'T' };
+  public static final byte[] INDEX_MAGIC = { 'K', 'M', 'C', 'I' };
+  public static final int VERSION = 2;
+  
+  public static final byte KEYFRAME = 1;
+  public static final byte EVENT = 2;
+  public static final byte NAME = 3;
+  public static final byte INDEX = 4;
+  
+  public static final byte FIXED = 0;
+  public static final byte PERIODIC = 1;
+  
+  /**
+   * The size of the footer at the end of the file
+   */
+  public static final int FOOTER_SIZE = 12;
+  
+  private TrajectoryFormat() { }
+  
+}
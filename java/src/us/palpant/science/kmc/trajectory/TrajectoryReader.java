@@ -0,0 +1,481 @@
+package us.palpant.science.kmc.trajectory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * Read a trajectory in the binary format described in TrajectoryFormat
+ * The file is memory-mapped, and seeking to a time starts from the last
+ * keyframe before it (or from the current position, if that is closer)
+ * and replays the events from there, so the cost of a seek does not
+ * depend on the length of the trajectory.
+ * The file is mapped in overlapping segments, so that files larger than
+ * 2 GB can be read and every record lies entirely within the segment
+ * where it starts
+ * @author palpant
+ *
+ */
+public class TrajectoryReader implements Closeable {
+  
+  private static final Logger log = Logger.getLogger(TrajectoryReader.class);
+  
+  private static final long SEGMENT = 1L << 30;
+  
+  private final FileChannel channel;
+  private final long length;
+  private final MappedByteBuffer[] segments;
+  
+  private final int size;
+  private final Lattice.BoundaryCondition bc;
+  private final List<String> stateNames = new ArrayList<>();
+  private final String lineage;
+  private final List<String> names = new ArrayList<>();
+  private final long firstRecord;
+  private long namesRead;
+  
+  private int nKeyframes = 0;
+  private double[] keyframeTimes;
+  private long[] keyframeOffsets;
+  private long[] keyframeEvents;
+  
+  /**
+   * The current state of the trajectory
+   */
+  private final Lattice lattice;
+  private double time;
+  private long position;
+  private long nEvents;
+  private int lastName = -1;
+  /**
+   * The offset of the last EVENT record read with next()
+   */
+  private long lastEvent = -1;
+  
+  /**
+   * Open a trajectory
+   * @param path the file to read
+   * @throws IOException if the file is not a valid trajectory
+   */
+  public TrajectoryReader(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    length = channel.size();
+    
+    // Read enough of the header to know the largest record
+    ByteBuffer header = ByteBuffer.allocate((int) Math.min(length, 11));
+    while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+    header.flip();
+    if (header.remaining() < 11 || !matches(header, 0, TrajectoryFormat.MAGIC)) {
+      throw new IOException("Not a KMC trajectory: "+path);
+    }
+    int version = header.getShort(4) & 0xFFFF;
+    if (version < 1 || version > TrajectoryFormat.VERSION) {
+      throw new IOException("Unknown trajectory version "+version+": "+path);
+    }
+    size = header.getInt(6);
+    bc = (header.get(10) == TrajectoryFormat.PERIODIC) ? 
+        Lattice.BoundaryCondition.PERIODIC : Lattice.BoundaryCondition.FIXED;
+    
+    // A record can be at most as big as a keyframe, or an event of 65535 changes
+    long overlap = Math.max(1 + 8 + size, 1 + 8 + 2 + 2 + 6*65535) + TrajectoryFormat.FOOTER_SIZE;
+    int nSegments = (int) Math.max(1, (length + SEGMENT - 1) / SEGMENT);
+    segments = new MappedByteBuffer[nSegments];
+    for (int k = 0; k < nSegments; k++) {
+      long offset = k * SEGMENT;
+      long mapped = Math.min(SEGMENT + overlap, length - offset);
+      segments[k] = channel.map(FileChannel.MapMode.READ_ONLY, offset, mapped);
+    }
+    
+    position = 11;
+    int nStates = getShort(position);
+    position += 2;
+    for (int id = 0; id < nStates; id++) {
+      stateNames.add(getString(position));
+      position += 2 + getShort(position);
+    }
+    if (version >= 2) {
+      lineage = getString(position);
+      position += 2 + getShort(position);
+    } else {
+      lineage = "";
+    }
+    firstRecord = position;
+    namesRead = position;
+    lattice = new Lattice(size, bc);
+    
+    if (!readIndex()) {
+      log.warn("Trajectory "+path+" has no index, so it will be scanned");
+      scanIndex();
+    }
+    if (nKeyframes == 0) {
+      throw new IOException("Trajectory does not have any keyframes: "+path);
+    }
+    rewind();
+  }
+  
+  private static boolean matches(ByteBuffer buffer, int offset, byte[] magic) {
+    for (int i = 0; i < magic.length; i++) {
+      if (buffer.get(offset+i) != magic[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Read the keyframe index from the end of the file
+   * @return false if the file does not have a valid footer
+   */
+  private boolean readIndex() throws IOException {
+    if (length < firstRecord + TrajectoryFormat.FOOTER_SIZE) {
+      return false;
+    }
+    long footer = length - TrajectoryFormat.FOOTER_SIZE;
+    for (int i = 0; i < TrajectoryFormat.INDEX_MAGIC.length; i++) {
+      if (getByte(footer+8+i) != TrajectoryFormat.INDEX_MAGIC[i]) {
+        return false;
+      }
+    }
+    long offset = getLong(footer);
+    if (offset < firstRecord || offset >= footer || getByte(offset) != TrajectoryFormat.INDEX) {
+      return false;
+    }
+    
+    int n = getInt(offset+1);
+    initIndex(n);
+    long p = offset + 5;
+    for (int k = 0; k < n; k++, p += 24) {
+      addKeyframe(getDouble(p), getLong(p+8), getLong(p+16));
+    }
+    return true;
+  }
+  
+  /**
+   * Build the keyframe index by reading through the whole file
+   */
+  private void scanIndex() throws IOException {
+    initIndex(16);
+    long events = 0;
+    long p = firstRecord;
+    while (p < length) {
+      byte tag = getByte(p);
+      long next = skip(p);
+      if (next < 0 || next > length) {
+        break;
+      }
+      if (tag == TrajectoryFormat.KEYFRAME) {
+        addKeyframe(getDouble(p+1), p, events);
+      } else if (tag == TrajectoryFormat.EVENT) {
+        events++;
+      } else if (tag == TrajectoryFormat.INDEX) {
+        break;
+      }
+      p = next;
+    }
+  }
+  
+  private void initIndex(int capacity) {
+    keyframeTimes = new double[Math.max(1, capacity)];
+    keyframeOffsets = new long[keyframeTimes.length];
+    keyframeEvents = new long[keyframeTimes.length];
+  }
+  
+  private void addKeyframe(double t, long offset, long events) {
+    if (nKeyframes == keyframeTimes.length) {
+      keyframeTimes = Arrays.copyOf(keyframeTimes, 2*nKeyframes);
+      keyframeOffsets = Arrays.copyOf(keyframeOffsets, 2*nKeyframes);
+      keyframeEvents = Arrays.copyOf(keyframeEvents, 2*nKeyframes);
+    }
+    keyframeTimes[nKeyframes] = t;
+    keyframeOffsets[nKeyframes] = offset;
+    keyframeEvents[nKeyframes++] = events;
+  }
+  
+  /**
+   * @param p the offset of a record
+   * @return the offset of the next record, or -1 if the record is invalid
+   */
+  private long skip(long p) {
+    if (p + 1 > length) {
+      return -1;
+    }
+    switch (getByte(p)) {
+    case TrajectoryFormat.KEYFRAME:
+      return p + 1 + 8 + size;
+    case TrajectoryFormat.EVENT:
+      if (p + 13 > length) {
+        return -1;
+      }
+      return p + 13 + 6L*getShort(p+11);
+    case TrajectoryFormat.NAME:
+      if (p + 5 > length) {
+        return -1;
+      }
+      return p + 5 + getShort(p+3);
+    default:
+      return -1;
+    }
+  }
+  
+  /**
+   * Go back to the first keyframe
+   */
+  public void rewind() {
+    loadKeyframe(0);
+  }
+  
+  private void loadKeyframe(int k) {
+    lastName = -1;
+    lastEvent = -1;
+    long p = keyframeOffsets[k];
+    time = getDouble(p+1);
+    p += 9;
+    ByteBuffer segment = segments[(int) (p / SEGMENT)];
+    int offset = (int) (p % SEGMENT);
+    for (int i = 0; i < size; i++) {
+      lattice.setId(i, segment.get(offset+i) & 0xFF);
+    }
+    position = keyframeOffsets[k] + 1 + 8 + size;
+    nEvents = keyframeEvents[k];
+  }
+  
+  /**
+   * Advance to the state after the next event
+   * @return false if there are no more events
+   */
+  public boolean next() {
+    while (position < length) {
+      byte tag = getByte(position);
+      long next = skip(position);
+      if (next < 0 || next > length) {
+        return false;
+      }
+      
+      if (tag == TrajectoryFormat.EVENT) {
+        time = getDouble(position+1);
+        lastName = getShort(position+9);
+        int n = getShort(position+11);
+        long p = position + 13;
+        for (int j = 0; j < n; j++, p += 6) {
+          lattice.setId(getInt(p), getByte(p+5) & 0xFF);
+        }
+        nEvents++;
+        lastEvent = position;
+        position = next;
+        return true;
+      }
+      position = next;
+    }
+    
+    return false;
+  }
+  
+  /**
+   * @return the time of the next event, or infinity if there are no more
+   */
+  private double peekTime() {
+    long p = position;
+    while (p < length) {
+      byte tag = getByte(p);
+      long next = skip(p);
+      if (next < 0 || next > length) {
+        break;
+      } else if (tag == TrajectoryFormat.EVENT) {
+        return getDouble(p+1);
+      }
+      p = next;
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+  
+  /**
+   * Move to the state of the trajectory at a time,
+   * i.e. the state after the last event at or before t
+   * @param t the time to seek to
+   */
+  public void seek(double t) {
+    int k = Arrays.binarySearch(keyframeTimes, 0, nKeyframes, t);
+    if (k < 0) {
+      k = Math.max(0, -k - 2);
+    } else {
+      // Several keyframes can have the same time
+      while (k < nKeyframes-1 && keyframeTimes[k+1] == t) {
+        k++;
+      }
+    }
+    
+    // Replay from the current position if it is between the keyframe and t
+    if (t < time || keyframeEvents[k] > nEvents) {
+      loadKeyframe(k);
+    }
+    while (peekTime() <= t && next()) { }
+  }
+  
+  /**
+   * Read the transition names defined before an offset
+   * Names are only read when they are needed, and only once
+   * @param offset the offset to read the names up to
+   */
+  private void readNames(long offset) {
+    long p = namesRead;
+    while (p < offset) {
+      if (getByte(p) == TrajectoryFormat.NAME && getShort(p+1) == names.size()) {
+        names.add(getString(p+3));
+      }
+      long next = skip(p);
+      if (next < 0) {
+        break;
+      }
+      p = next;
+    }
+    namesRead = Math.max(namesRead, p);
+  }
+  
+  private byte getByte(long p) {
+    return segments[(int) (p / SEGMENT)].get((int) (p % SEGMENT));
+  }
+  
+  private int getShort(long p) {
+    return segments[(int) (p / SEGMENT)].getShort((int) (p % SEGMENT)) & 0xFFFF;
+  }
+  
+  private int getInt(long p) {
+    return segments[(int) (p / SEGMENT)].getInt((int) (p % SEGMENT));
+  }
+  
+  private long getLong(long p) {
+    return segments[(int) (p / SEGMENT)].getLong((int) (p % SEGMENT));
+  }
+  
+  private double getDouble(long p) {
+    return segments[(int) (p / SEGMENT)].getDouble((int) (p % SEGMENT));
+  }
+  
+  private String getString(long p) {
+    int n = getShort(p);
+    byte[] bytes = new byte[n];
+    for (int i = 0; i < n; i++) {
+      bytes[i] = getByte(p+2+i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  
+  /**
+   * @return the state of the trajectory at the current time,
+   *   with the State ids of the file (see getStateNames)
+   */
+  public Lattice getLattice() {
+    return lattice;
+  }
+  
+  public double getTime() {
+    return time;
+  }
+  
+  /**
+   * @return the number of events up to the current time
+   */
+  public long getNumEvents() {
+    return nEvents;
+  }
+  
+  /**
+   * @return the name of the last event read with next(), or null
+   */
+  public String getEventName() {
+    if (lastName >= names.size()) {
+      readNames(position);
+    }
+    if (lastName < 0 || lastName >= names.size()) {
+      return null;
+    }
+    return names.get(lastName);
+  }
+  
+  /**
+   * @return the number of sites changed by the last event read with next()
+   */
+  public int getNumChanges() {
+    if (lastEvent < 0) {
+      return 0;
+    }
+    return getShort(lastEvent+11);
+  }
+  
+  /**
+   * @param j the index of a change of the last event read with next()
+   * @return the coordinate of change j
+   */
+  public int getChangeCoord(int j) {
+    return getInt(lastEvent+13+6*j);
+  }
+  
+  public int getChangeOldState(int j) {
+    return getByte(lastEvent+13+6*j+4) & 0xFF;
+  }
+  
+  public int getChangeNewState(int j) {
+    return getByte(lastEvent+13+6*j+5) & 0xFF;
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  public Lattice.BoundaryCondition getBoundaryCondition() {
+    return bc;
+  }
+  
+  /**
+   * @return the names of the States, indexed by their ids in the file
+   */
+  public List<String> getStateNames() {
+    return Collections.unmodifiableList(stateNames);
+  }
+  
+  /**
+   * @return the random number generator and the seed and streams that
+   *   it came from, or an empty string if they were not recorded
+   */
+  public String getLineage() {
+    return lineage;
+  }
+  
+  public int getNumKeyframes() {
+    return nKeyframes;
+  }
+  
+  /**
+   * @return the time of the first keyframe
+   */
+  public double getStartTime() {
+    return keyframeTimes[0];
+  }
+  
+  /**
+   * @return the time of the last keyframe, which is the end
+   *   of the trajectory if it was closed properly
+   */
+  public double getEndTime() {
+    return keyframeTimes[nKeyframes-1];
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+  
+}
@@ -0,0 +1,251 @@
+package us.palpant.science.kmc.trajectory;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import us.palpant.science.kmc.Checkpointable;
+import us.palpant.science.kmc.Event;
+import us.palpant.science.kmc.State;
+import us.palpant.science.kmc.geometry.Lattice;
+
+/**
+ * Write a trajectory in the binary format described in TrajectoryFormat
+ * @author palpant
+ *
+ */
+public class TrajectoryWriter implements Closeable, Checkpointable {
+  
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final int size;
+  private final Map<String,Integer> names = new HashMap<>();
+  
+  private int nKeyframes = 0;
+  private double[] keyframeTimes = new double[16];
+  private long[] keyframeOffsets = new long[16];
+  private long[] keyframeEvents = new long[16];
+  private long nEvents = 0;
+  
+  /**
+   * Create a new trajectory and write its header
+   * @param path the file to write
+   * @param lattice the Lattice that the trajectory is of
+   * @throws IOException
+   */
+  public TrajectoryWriter(Path path, Lattice lattice) throws IOException {
+    this(path, lattice, false, "");
+  }
+  
+  /**
+   * @param path the file to write
+   * @param lattice the Lattice that the trajectory is of
+   * @param resume whether to reopen an existing trajectory, which is
+   *   then positioned by restoring a checkpoint, rather than create one
+   * @param lineage the lineage of the random number generator (see
+   *   RandomGenerator.getLineage), which is recorded in the header
+   * @throws IOException
+   */
+  public TrajectoryWriter(Path path, Lattice lattice, boolean resume, String lineage) throws IOException {
+    size = lattice.size();
+    buffer = ByteBuffer.allocate(Math.max(1 << 16, size + 64));
+    if (resume) {
+      channel = FileChannel.open(path, StandardOpenOption.WRITE);
+      return;
+    }
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, 
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    
+    buffer.put(TrajectoryFormat.MAGIC);
+    buffer.putShort((short) TrajectoryFormat.VERSION);
+    buffer.putInt(size);
+    buffer.put(lattice.getBoundaryCondition() == Lattice.BoundaryCondition.PERIODIC ? 
+        TrajectoryFormat.PERIODIC : TrajectoryFormat.FIXED);
+    buffer.putShort((short) State.getNumStates());
+    for (int id = 0; id < State.getNumStates(); id++) {
+      putString(State.forId(id).getName());
+    }
+    putString(lineage);
+  }
+  
+  /**
+   * Write the full state of the Lattice
+   * @param time the current time
+   * @param lattice the Lattice
+   * @throws IOException
+   */
+  public void writeKeyframe(double time, Lattice lattice) throws IOException {
+    ensure(1 + 8 + size);
+    if (nKeyframes == keyframeTimes.length) {
+      keyframeTimes = Arrays.copyOf(keyframeTimes, 2*nKeyframes);
+      keyframeOffsets = Arrays.copyOf(keyframeOffsets, 2*nKeyframes);
+      keyframeEvents = Arrays.copyOf(keyframeEvents, 2*nKeyframes);
+    }
+    keyframeTimes[nKeyframes] = time;
+    keyframeOffsets[nKeyframes] = position();
+    keyframeEvents[nKeyframes++] = nEvents;
+    
+    buffer.put(TrajectoryFormat.KEYFRAME);
+    buffer.putDouble(time);
+    for (int i = 0; i < size; i++) {
+      buffer.put((byte) lattice.getId(i));
+    }
+  }
+  
+  /**
+   * Write the changes made by an event
+   * @param event the Event
+   * @throws IOException
+   */
+  public void writeEvent(Event event) throws IOException {
+    Integer name = names.get(event.getName());
+    if (name == null) {
+      name = names.size();
+      names.put(event.getName(), name);
+      byte[] bytes = event.getName().getBytes(StandardCharsets.UTF_8);
+      ensure(1 + 2 + 2 + bytes.length);
+      buffer.put(TrajectoryFormat.NAME);
+      buffer.putShort(name.shortValue());
+      buffer.putShort((short) bytes.length);
+      buffer.put(bytes);
+    }
+    
+    ensure(1 + 8 + 2 + 2 + 6*event.size());
+    buffer.put(TrajectoryFormat.EVENT);
+    buffer.putDouble(event.getTime());
+    buffer.putShort(name.shortValue());
+    buffer.putShort((short) event.size());
+    for (int j = 0; j < event.size(); j++) {
+      buffer.putInt(event.getCoord(j));
+      buffer.put((byte) event.getOldState(j));
+      buffer.put((byte) event.getNewState(j));
+    }
+    nEvents++;
+  }
+  
+  private void putString(String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    ensure(2 + bytes.length);
+    buffer.putShort((short) bytes.length);
+    buffer.put(bytes);
+  }
+  
+  /**
+   * Make room in the buffer for n bytes
+   */
+  private void ensure(int n) throws IOException {
+    if (buffer.remaining() < n) {
+      flush();
+      if (buffer.remaining() < n) {
+        throw new IOException("Trajectory record of "+n+" bytes is larger than the buffer");
+      }
+    }
+  }
+  
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+  
+  /**
+   * @return the offset in the file of the next byte to be written
+   */
+  private long position() throws IOException {
+    return channel.position() + buffer.position();
+  }
+  
+  /**
+   * Flush everything so far, and save the position and the index
+   */
+  @Override
+  public void save(DataOutput out) throws IOException {
+    flush();
+    out.writeLong(channel.position());
+    out.writeLong(nEvents);
+    out.writeInt(names.size());
+    for (Entry<String,Integer> name : names.entrySet()) {
+      out.writeUTF(name.getKey());
+      out.writeInt(name.getValue());
+    }
+    out.writeInt(nKeyframes);
+    for (int k = 0; k < nKeyframes; k++) {
+      out.writeDouble(keyframeTimes[k]);
+      out.writeLong(keyframeOffsets[k]);
+      out.writeLong(keyframeEvents[k]);
+    }
+  }
+  
+  /**
+   * Cut the file back to the checkpoint, and continue from there
+   */
+  @Override
+  public void restore(DataInput in) throws IOException {
+    long position = in.readLong();
+    if (channel.size() < position) {
+      throw new IOException("Trajectory is shorter than at the checkpoint");
+    }
+    channel.truncate(position);
+    channel.position(position);
+    buffer.clear();
+    nEvents = in.readLong();
+    names.clear();
+    int nNames = in.readInt();
+    for (int j = 0; j < nNames; j++) {
+      String name = in.readUTF();
+      names.put(name, in.readInt());
+    }
+    nKeyframes = in.readInt();
+    keyframeTimes = new double[Math.max(16, nKeyframes)];
+    keyframeOffsets = new long[keyframeTimes.length];
+    keyframeEvents = new long[keyframeTimes.length];
+    for (int k = 0; k < nKeyframes; k++) {
+      keyframeTimes[k] = in.readDouble();
+      keyframeOffsets[k] = in.readLong();
+      keyframeEvents[k] = in.readLong();
+    }
+  }
+  
+  public long getNumEvents() {
+    return nEvents;
+  }
+  
+  public int getNumKeyframes() {
+    return nKeyframes;
+  }
+
+  /**
+   * Write the index and footer, and close the file
+   */
+  @Override
+  public void close() throws IOException {
+    long indexOffset = position();
+    ensure(1 + 4);
+    buffer.put(TrajectoryFormat.INDEX);
+    buffer.putInt(nKeyframes);
+    for (int k = 0; k < nKeyframes; k++) {
+      ensure(8 + 8 + 8);
+      buffer.putDouble(keyframeTimes[k]);
+      buffer.putLong(keyframeOffsets[k]);
+      buffer.putLong(keyframeEvents[k]);
+    }
+    ensure(TrajectoryFormat.FOOTER_SIZE);
+    buffer.putLong(indexOffset);
+    buffer.put(TrajectoryFormat.INDEX_MAGIC);
+    flush();
+    channel.close();
+  }
+  
+}
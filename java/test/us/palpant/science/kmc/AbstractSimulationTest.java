@@ -0,0 +1,59 @@
+package us.palpant.science.kmc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import us.palpant.Ark;
+
+/**
+ * Base class for tests that run simulations from a configuration
+ * Each test gets a temporary directory for the configuration and the
+ * outputs, which is deleted afterwards
+ * @author palpant
+ *
+ */
+public abstract class AbstractSimulationTest extends TestCase {
+
+  protected Path dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = Files.createTempDirectory("kmc");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path f : files) {
+        Files.delete(f);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  /**
+   * @param config the text of a configuration, in which $DIR is
+   *   replaced by the temporary directory
+   * @param overrides parameters to override, as PARAM=VALUE
+   * @return a new Main application for the configuration
+   */
+  protected Main newMain(String config, String... overrides) throws IOException {
+    Path path = dir.resolve("test.cfg");
+    Files.write(path, config.replace("$DIR", dir.toString()).getBytes(StandardCharsets.UTF_8));
+    List<String> args = new ArrayList<>(Arrays.asList("--include", path.toString()));
+    for (String override : overrides) {
+      args.add("--cfg");
+      args.add(override);
+    }
+    return new Main(Ark.fromArgv(args.toArray(new String[args.size()])));
+  }
+
+}
@@ -0,0 +1,125 @@
+package us.palpant.science.kmc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.plugins.Plugin;
+import us.palpant.science.kmc.random.RandomGenerator;
+
+/**
+ * A resumed simulation must continue exactly as it would have
+ * without being interrupted, with every engine
+ * @author palpant
+ *
+ */
+public class CheckpointTest extends AbstractSimulationTest {
+
+  private static final String MODEL = "app = kmc\n"
+      + "lattice = {\n length = 1000\n bc = fixed\n}\n"
+      + "particles = {\n nuc = {\n  type = fixedWidth\n  size = 147\n"
+      + "  transitions = [ adsorption desorption diffusion ]\n"
+      + "  adsorption = {\n   type = adsorption\n   rate = 1\n  }\n"
+      + "  desorption = {\n   type = desorption\n   rate = 1\n  }\n"
+      + "  diffusion = {\n   type = diffusion\n   rate = 1\n  }\n"
+      + " }\n}\n";
+
+  private static final String CONFIG = MODEL
+      + "kmc = {\n last_time = 300\n seed = 10011989\n"
+      + " plugins = [ nnuc nucdist bintraj ]\n"
+      + " checkpoint = $DIR/checkpoint.bin\n checkpoint_interval = 0\n"
+      + " nnuc = {\n  type = nobjects\n  state = nuc\n  name = $DIR/nnuc.txt\n }\n"
+      + " nucdist = {\n  type = distribution\n  state = nuc\n  name = $DIR/nuc-distribution.txt\n }\n"
+      + " bintraj = {\n  type = trajectory\n  format = binary\n  name = $DIR/sim.kmct\n  keyframe = 1000\n }\n"
+      + "}\n";
+
+  /**
+   * Only a plugin that writes nothing until it is closed
+   */
+  private static final String ROUND_TRIP_CONFIG = MODEL
+      + "kmc = {\n last_time = 100\n seed = 10011989\n"
+      + " plugins = [ nucdist ]\n"
+      + " nucdist = {\n  type = distribution\n  state = nuc\n  name = $DIR/nuc-distribution.txt\n }\n"
+      + "}\n";
+
+  private static final String[] OUTPUTS = { "nnuc.txt", "nuc-distribution.txt", "sim.kmct" };
+
+  private static final String[][] ENGINES = {
+    { "kmc.engine=direct", "kmc.selector=sumtree" },
+    { "kmc.engine=direct", "kmc.selector=composition" },
+    { "kmc.engine=direct", "kmc.gap_index=true" },
+    { "kmc.engine=nextreaction" },
+    { "kmc.engine=nullevent" },
+  };
+
+  public void testResumeMatchesUninterruptedRun() throws IOException {
+    for (String[] engine : ENGINES) {
+      newMain(CONFIG, engine).run();
+      byte[][] expected = new byte[OUTPUTS.length][];
+      for (int i = 0; i < OUTPUTS.length; i++) {
+        expected[i] = Files.readAllBytes(dir.resolve(OUTPUTS[i]));
+      }
+
+      // The last checkpoint is some events before the end. Anything written
+      // after it, as by a simulation that was killed, must be discarded
+      Path checkpoint = dir.resolve("checkpoint.bin");
+      assertTrue(Files.exists(checkpoint));
+      for (String output : OUTPUTS) {
+        Files.write(dir.resolve(output), "garbage".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+      }
+      Main main = newMain(CONFIG, engine);
+      main.setResume(checkpoint);
+      main.run();
+
+      for (int i = 0; i < OUTPUTS.length; i++) {
+        assertTrue(engine[engine.length-1]+": "+OUTPUTS[i],
+            Arrays.equals(expected[i], Files.readAllBytes(dir.resolve(OUTPUTS[i]))));
+      }
+    }
+  }
+
+  public void testRoundTrip() throws IOException {
+    for (String[] engine : ENGINES) {
+      Main main = newMain(ROUND_TRIP_CONFIG, engine);
+      Lattice lattice = main.initLattice();
+      KineticMonteCarlo kmc = newApp(main, lattice);
+      kmc.run();
+      byte[] saved = save(lattice, kmc);
+
+      // Restoring a checkpoint into a new simulation, and saving it again, gives the same checkpoint
+      main = newMain(ROUND_TRIP_CONFIG, engine);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(saved));
+      lattice = main.initLattice();
+      lattice.restore(in);
+      kmc = newApp(main, lattice);
+      kmc.restore(in);
+      assertTrue(engine[engine.length-1], Arrays.equals(saved, save(lattice, kmc)));
+    }
+  }
+
+  private static KineticMonteCarlo newApp(Main main, Lattice lattice) throws IOException {
+    Engine engine = main.initEngine(lattice);
+    RandomGenerator rng = main.initRandom();
+    List<Plugin> plugins = main.initPlugins(lattice, -1, rng);
+    return main.initApp(engine, plugins, rng, -1);
+  }
+
+  private static byte[] save(Lattice lattice, KineticMonteCarlo kmc) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    lattice.save(out);
+    kmc.save(out);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+}
@@ -0,0 +1,64 @@
+package us.palpant.science.kmc;
+
+import java.io.IOException;
+import java.util.List;
+
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.plugins.Plugin;
+import us.palpant.science.kmc.random.RandomGenerator;
+
+/**
+ * Every engine must stop when the Lattice reaches an absorbing state
+ * @author palpant
+ *
+ */
+public class EngineTest extends AbstractSimulationTest {
+
+  /**
+   * Adsorption only, so the Lattice jams and then nothing can happen
+   */
+  private static final String CONFIG = "app = kmc\n"
+      + "lattice = {\n length = 200\n bc = fixed\n}\n"
+      + "particles = {\n nuc = {\n  type = fixedWidth\n  size = 8\n"
+      + "  transitions = [ adsorption ]\n"
+      + "  adsorption = {\n   type = adsorption\n   rate = 0.3\n  }\n"
+      + " }\n}\n"
+      + "kmc = {\n last_time = 1e9\n seed = 7\n"
+      + " plugins = [ nnuc ]\n"
+      + " nnuc = {\n  type = nobjects\n  state = nuc\n  name = $DIR/nnuc.txt\n }\n"
+      + "}\n";
+
+  private static final String[][] ENGINES = {
+    { "kmc.engine=direct", "kmc.selector=sumtree" },
+    { "kmc.engine=direct", "kmc.selector=composition" },
+    { "kmc.engine=direct", "kmc.gap_index=true" },
+    { "kmc.engine=nextreaction" },
+    { "kmc.engine=nullevent" },
+  };
+
+  public void testAbsorbingState() throws IOException {
+    for (String[] config : ENGINES) {
+      String name = config[config.length-1];
+      Main main = newMain(CONFIG, config);
+      Lattice lattice = main.initLattice();
+      Engine engine = main.initEngine(lattice);
+      RandomGenerator rng = main.initRandom();
+      List<Plugin> plugins = main.initPlugins(lattice, -1, rng);
+      KineticMonteCarlo kmc = main.initApp(engine, plugins, rng, -1);
+      kmc.run();
+      for (Plugin p : plugins) {
+        p.close();
+      }
+
+      assertTrue(name+" ran until tFinal", kmc.getTime() < kmc.getTFinal());
+      assertEquals(name, Double.POSITIVE_INFINITY, engine.next(rng, Double.POSITIVE_INFINITY), 0);
+      // No gap is left that a particle fits in
+      int gap = 0;
+      for (int i = 0; i < lattice.size(); i++) {
+        gap = (lattice.get(i) == State.EMPTY) ? gap+1 : 0;
+        assertTrue(name+" left a gap at "+i, gap < 8);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+package us.palpant.science.kmc.selection;
+
+import junit.framework.TestCase;
+
+import us.palpant.science.kmc.random.Lcg48;
+import us.palpant.science.kmc.random.RandomGenerator;
+
+/**
+ * Every Selector must select each index with the same probability as the SumTree
+ * @author palpant
+ *
+ */
+public class SelectorTest extends TestCase {
+
+  private static final String[] SELECTORS = { "sumtree", "composition" };
+  private static final int SIZE = 64;
+  private static final int DRAWS = 200_000;
+
+  /**
+   * @return rates spread over 10 powers of 2, with every fifth rate 0
+   */
+  private static double[] getRates(long seed) {
+    RandomGenerator rng = new Lcg48();
+    rng.setSeed(seed);
+    double[] rates = new double[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      rates[i] = (i % 5 == 0) ? 0 : Math.pow(2, 10*rng.nextDouble() - 5);
+    }
+    return rates;
+  }
+
+  /**
+   * @return the number of times that each index is selected in DRAWS draws
+   */
+  private static int[] count(Selector selector, long seed) {
+    RandomGenerator rng = new Lcg48();
+    rng.setSeed(seed);
+    int[] counts = new int[selector.size()];
+    for (int n = 0; n < DRAWS; n++) {
+      counts[selector.select(rng.nextDouble())]++;
+    }
+    return counts;
+  }
+
+  /**
+   * Check that the frequencies of a Selector agree with those of
+   * a SumTree with the same rates, within 5 standard deviations
+   */
+  private static void assertSameFrequencies(String name, Selector selector, double[] rates) {
+    SumTree expected = new SumTree(rates.length);
+    expected.setAll(rates);
+    assertEquals(name, expected.getTotal(), selector.getTotal(), 1e-12*expected.getTotal());
+
+    int[] counts = count(selector, 1);
+    int[] expectedCounts = count(expected, 2);
+    for (int i = 0; i < rates.length; i++) {
+      double p = rates[i] / expected.getTotal();
+      if (p == 0) {
+        assertEquals(name+": index "+i+" has rate 0", 0, counts[i]);
+        continue;
+      }
+      double sigma = Math.sqrt(2 * DRAWS * p * (1-p));
+      assertTrue(name+": index "+i+" was selected "+counts[i]+" times, the SumTree "+expectedCounts[i],
+          Math.abs(counts[i] - expectedCounts[i]) < 5*sigma);
+    }
+  }
+
+  public void testSetAll() {
+    double[] rates = getRates(10011989);
+    for (String name : SELECTORS) {
+      Selector selector = Selector.forName(name, SIZE);
+      selector.setAll(rates);
+      assertSameFrequencies(name, selector, rates);
+    }
+  }
+
+  public void testUpdate() {
+    for (String name : SELECTORS) {
+      Selector selector = Selector.forName(name, SIZE);
+      double[] rates = getRates(10011989);
+      for (int i = 0; i < SIZE; i++) {
+        selector.update(i, rates[i]);
+      }
+      // Move every rate, most of them to another power of 2
+      rates = getRates(42);
+      for (int i = 0; i < SIZE; i++) {
+        selector.update(i, rates[i]);
+      }
+      assertSameFrequencies(name, selector, rates);
+    }
+  }
+
+  public void testZeroRates() {
+    for (String name : SELECTORS) {
+      Selector selector = Selector.forName(name, SIZE);
+      assertEquals(name, 0, selector.getTotal(), 0);
+
+      // The total must be exactly 0 after every rate is cleared, without round-off
+      double[] rates = getRates(10011989);
+      for (int i = 0; i < SIZE; i++) {
+        selector.update(i, rates[i]);
+      }
+      for (int i = 0; i < SIZE; i++) {
+        selector.update(i, 0);
+      }
+      assertEquals(name, 0, selector.getTotal(), 0);
+
+      selector.setAll(rates);
+      selector.setAll(new double[SIZE]);
+      assertEquals(name, 0, selector.getTotal(), 0);
+
+      // And it must select again once a rate is set
+      selector.update(7, 0.3);
+      assertEquals(name, 7, selector.select(0.5));
+    }
+  }
+
+}
@@ -0,0 +1,140 @@
+package us.palpant.science.kmc.trajectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import us.palpant.science.kmc.AbstractSimulationTest;
+import us.palpant.science.kmc.Event;
+import us.palpant.science.kmc.State;
+import us.palpant.science.kmc.geometry.Lattice;
+import us.palpant.science.kmc.random.Lcg48;
+import us.palpant.science.kmc.random.RandomGenerator;
+
+/**
+ * A trajectory must read back exactly as it was written
+ * @author palpant
+ *
+ */
+public class TrajectoryTest extends AbstractSimulationTest {
+
+  private static final int SIZE = 500;
+  private static final int EVENTS = 5000;
+  private static final int KEYFRAME = 700;
+
+  /**
+   * A rod that no other test uses, so that its State is only created
+   * when the transition templates are built, on 4 domains
+   */
+  private static final String DOMAINS_CONFIG = "app = kmc\n"
+      + "lattice = {\n length = 2000\n bc = fixed\n}\n"
+      + "particles = {\n"
+      + " domainrod = {\n  type = fixedWidth\n  size = 20\n"
+      + "  transitions = [ adsorption desorption ]\n"
+      + "  adsorption = {\n   type = adsorption\n   rate = 1\n  }\n"
+      + "  desorption = {\n   type = desorption\n   rate = 1\n  }\n"
+      + " }\n}\n"
+      + "kmc = {\n last_time = 20\n seed = 7\n domains = 4\n threads = 2\n"
+      + " plugins = [ bintraj ]\n"
+      + " bintraj = {\n  type = trajectory\n  format = binary\n  name = $DIR/sim.kmct\n  keyframe = 100\n }\n"
+      + "}\n";
+
+  public void testRoundTrip() throws IOException {
+    State a = State.forName("trajectorya");
+    State b = State.forName("trajectoryb");
+    String[] names = { "adsorb", "desorb", "convert" };
+    Lattice lattice = new Lattice(SIZE, Lattice.BoundaryCondition.PERIODIC);
+
+    // Write random events, and remember the Lattice after each one
+    Path path = dir.resolve("test.kmct");
+    RandomGenerator rng = new Lcg48();
+    rng.setSeed(10011989);
+    List<int[]> states = new ArrayList<>();
+    List<Event> events = new ArrayList<>();
+    double t = 0;
+    try (TrajectoryWriter writer = new TrajectoryWriter(path, lattice, false, "test lineage")) {
+      writer.writeKeyframe(t, lattice);
+      for (int n = 1; n <= EVENTS; n++) {
+        Event event = new Event();
+        event.clear(names[rng.nextInt(names.length)]);
+        int coord = rng.nextInt(SIZE);
+        int width = 1 + rng.nextInt(10);
+        State s = rng.nextBoolean() ? a : b;
+        for (int i = coord; i < coord+width; i++) {
+          int site = lattice.index(i);
+          event.set(lattice, site, (lattice.get(site) == s ? State.EMPTY : s).getId());
+        }
+        t += rng.nextExponential();
+        event.setTime(t, 0);
+        writer.writeEvent(event);
+        events.add(event);
+        states.add(getIds(lattice));
+        if (n % KEYFRAME == 0) {
+          writer.writeKeyframe(t, lattice);
+        }
+      }
+      writer.writeKeyframe(t, lattice);
+    }
+
+    try (TrajectoryReader reader = new TrajectoryReader(path)) {
+      assertEquals(SIZE, reader.size());
+      assertEquals(Lattice.BoundaryCondition.PERIODIC, reader.getBoundaryCondition());
+      assertEquals("test lineage", reader.getLineage());
+      assertEquals(a.getName(), reader.getStateNames().get(a.getId()));
+      assertEquals(b.getName(), reader.getStateNames().get(b.getId()));
+      assertEquals(EVENTS/KEYFRAME + 2, reader.getNumKeyframes());
+      assertEquals(t, reader.getEndTime(), 0);
+
+      // Read every event in order
+      assertTrue(Arrays.equals(new int[SIZE], getIds(reader.getLattice())));
+      for (int n = 0; n < EVENTS; n++) {
+        assertTrue(reader.next());
+        Event event = events.get(n);
+        assertEquals(n+1, reader.getNumEvents());
+        assertEquals(event.getTime(), reader.getTime(), 0);
+        assertEquals(event.getName(), reader.getEventName());
+        assertEquals(event.size(), reader.getNumChanges());
+        for (int j = 0; j < event.size(); j++) {
+          assertEquals(event.getCoord(j), reader.getChangeCoord(j));
+          assertEquals(event.getOldState(j), reader.getChangeOldState(j));
+          assertEquals(event.getNewState(j), reader.getChangeNewState(j));
+        }
+        assertTrue("after event "+n, Arrays.equals(states.get(n), getIds(reader.getLattice())));
+      }
+      assertFalse(reader.next());
+
+      // Seek backward and forward to random times
+      for (int k = 0; k < 200; k++) {
+        int n = rng.nextInt(EVENTS);
+        reader.seek(events.get(n).getTime());
+        assertEquals(n+1, reader.getNumEvents());
+        assertTrue("seek to event "+n, Arrays.equals(states.get(n), getIds(reader.getLattice())));
+      }
+    }
+  }
+
+  public void testDomainsHeader() throws IOException {
+    newMain(DOMAINS_CONFIG).run();
+    try (TrajectoryReader reader = new TrajectoryReader(dir.resolve("sim.kmct"))) {
+      // Every State on the Lattice must be named in the header
+      List<String> stateNames = reader.getStateNames();
+      assertTrue(stateNames.contains("domainrod"));
+      do {
+        for (int i = 0; i < reader.size(); i++) {
+          assertTrue(reader.getLattice().getId(i) < stateNames.size());
+        }
+      } while (reader.next());
+    }
+  }
+
+  private static int[] getIds(Lattice lattice) {
+    int[] ids = new int[lattice.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = lattice.getId(i);
+    }
+    return ids;
+  }
+
+}